@@ -32,6 +32,12 @@ android {
         sourceCompatibility = JavaVersion.VERSION_1_8
         targetCompatibility = JavaVersion.VERSION_1_8
     }
+    testOptions {
+        unitTests.all {
+            // the fleet scaling test only runs on request: ./gradlew test -Pvend.fleet.scaling=true
+            it.systemProperty("vend.fleet.scaling", project.findProperty("vend.fleet.scaling") ?: "false")
+        }
+    }
 
 }
 
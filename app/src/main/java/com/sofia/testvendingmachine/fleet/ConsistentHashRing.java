@@ -0,0 +1,90 @@
+package com.sofia.testvendingmachine.fleet;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Maps machine ids to partitions with consistent hashing.
+ * <p>
+ * Every partition owns many points on a ring of 64 bit hashes, and a machine belongs to the first
+ * partition point at or after its own hash. Adding a partition therefore only takes machines away
+ * from their current owners in proportion to its share of the ring; every other machine stays
+ * where it is. The ring is deterministic, so routers built for the same partitions agree.
+ */
+public final class ConsistentHashRing {
+    /**
+     * points per partition; more points spread machines more evenly
+     */
+    private static final int VIRTUAL_NODES = 160;
+
+    private final TreeMap<Long, Integer> ring = new TreeMap<>();
+
+    private int partitionCount;
+
+    /**
+     * Construct a ring instance
+     *
+     * @param partitionCount number of partitions, numbered from zero
+     */
+    public ConsistentHashRing(int partitionCount) {
+        for (int i = 0; i < partitionCount; i++) {
+            addPartition();
+        }
+    }
+
+    /**
+     * Copy constructor, e.g. to plan a rebalance without changing the ring in use
+     */
+    public ConsistentHashRing(ConsistentHashRing other) {
+        this.ring.putAll(other.ring);
+        this.partitionCount = other.partitionCount;
+    }
+
+    /**
+     * Adds the next partition to the ring
+     *
+     * @return the number of the new partition
+     */
+    public int addPartition() {
+        final int partition = this.partitionCount++;
+        for (int node = 0; node < VIRTUAL_NODES; node++) {
+            // partition points keep the high half non-zero so they never share an input with a
+            // machine id; mix is a bijection, so they never share a hash either
+            this.ring.put(mix(((long) (partition + 1) << 32) | node), partition);
+        }
+
+        return partition;
+    }
+
+    public int getPartitionCount() {
+        return partitionCount;
+    }
+
+    /**
+     * @param machineId id of a machine
+     * @return number of the partition owning the machine
+     */
+    public int partitionFor(int machineId) {
+        if (this.partitionCount == 0) {
+            throw new UnsupportedOperationException("the ring has no partitions");
+        }
+
+        Map.Entry<Long, Integer> owner = this.ring.ceilingEntry(mix(machineId & 0xFFFFFFFFL));
+        if (owner == null) {
+            // wrap around to the start of the ring
+            owner = this.ring.firstEntry();
+        }
+
+        return owner.getValue();
+    }
+
+    /**
+     * 64 bit finalizer from SplitMix64; spreads nearby ids across the whole ring
+     */
+    private static long mix(long value) {
+        long z = value + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,358 @@
+package com.sofia.testvendingmachine.fleet;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.sofia.testvendingmachine.models.MachineSnapshot;
+import com.sofia.testvendingmachine.models.MachineState;
+import com.sofia.testvendingmachine.models.Product;
+import com.sofia.testvendingmachine.remote.VendClient;
+import com.sofia.testvendingmachine.remote.VendServer;
+import com.sofia.testvendingmachine.services.IVendService;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Routes calls for many vending machines to the engine processes (partitions) that own them.
+ * <p>
+ * Every partition is a {@link VendServer} hosting machines by id, e.g. started with
+ * {@link VendPartition}. Machine ids map to partitions through a {@link ConsistentHashRing}, so
+ * adding a partition only moves the machines the new partition takes over.
+ * <p>
+ * Not thread-safe; use one fleet per thread. Fleets built for the same partitions, in the same
+ * order, route identically. After one fleet added a partition, the others add it as well; the
+ * machines have already moved, so nothing is moved twice.
+ */
+public final class PartitionedFleet implements Closeable {
+    /**
+     * A machine in the fleet; every call goes to whichever partition owns the machine at the time
+     */
+    private final class RoutedMachine implements IVendService {
+        private final int machineId;
+
+        RoutedMachine(int machineId) {
+            this.machineId = machineId;
+        }
+
+        @Override
+        public boolean insertCoin(int usc) {
+            return (Boolean) pipeline(machineId).insertCoin(usc).sync().get(1);
+        }
+
+        @NonNull
+        @Override
+        public String updateAndGetCurrentMessageForDisplay() {
+            return (String) pipeline(machineId).updateAndGetCurrentMessageForDisplay().sync().get(1);
+        }
+
+        @Override
+        public int getAcceptedUsc() {
+            return (Integer) pipeline(machineId).getAcceptedUsc().sync().get(1);
+        }
+
+        @Override
+        public int getUscInReturn() {
+            return (Integer) pipeline(machineId).getUscInReturn().sync().get(1);
+        }
+
+        @Override
+        public boolean purchaseProduct(int productIndex) {
+            return (Boolean) pipeline(machineId).purchaseProduct(productIndex).sync().get(1);
+        }
+
+        @Override
+        public int getPriceInUsc(int productIndex) {
+            return (Integer) pipeline(machineId).getPriceInUsc(productIndex).sync().get(1);
+        }
+
+        @Override
+        public void returnCoins() {
+            pipeline(machineId).returnCoins().sync();
+        }
+
+        @Override
+        public void collectCoins() {
+            pipeline(machineId).collectCoins().sync();
+        }
+
+        @SuppressWarnings("unchecked")
+        @NonNull
+        @Override
+        public List<Product> getProducts() {
+            return (List<Product>) pipeline(machineId).getProducts().sync().get(1);
+        }
+
+        @NonNull
+        @Override
+        public MachineSnapshot snapshot() {
+            return (MachineSnapshot) pipeline(machineId).snapshot().sync().get(1);
+        }
+    }
+
+    /**
+     * A machine on its way from its previous owner to a new partition
+     */
+    private static final class Move {
+        @NonNull
+        final VendClient.Pipeline from;
+
+        final int machineId;
+
+        @NonNull
+        final MachineState state;
+
+        /**
+         * true once the new partition accepted the machine
+         */
+        boolean landed;
+
+        Move(@NonNull VendClient.Pipeline from, int machineId, @NonNull MachineState state) {
+            this.from = from;
+            this.machineId = machineId;
+            this.state = state;
+        }
+    }
+
+    /**
+     * most machines taken from a partition in one round trip while rebalancing
+     */
+    private static final int TAKE_BATCH = 1024;
+
+    @NonNull
+    private final List<VendClient> partitions = new ArrayList<>();
+
+    /**
+     * one reusable pipeline per partition client, in the same order; a pipeline holds a large
+     * request buffer, so routed calls must not create their own
+     */
+    @NonNull
+    private final List<VendClient.Pipeline> pipelines = new ArrayList<>();
+
+    @NonNull
+    private ConsistentHashRing ring = new ConsistentHashRing(0);
+
+    /**
+     * Connects to every partition of a fleet
+     *
+     * @param addresses addresses of the partitions, in the order they joined the fleet
+     * @throws IOException if any partition cannot be reached
+     */
+    public PartitionedFleet(@NonNull List<InetSocketAddress> addresses) throws IOException {
+        try {
+            for (InetSocketAddress address : addresses) {
+                final VendClient client = VendClient.connect(address);
+                this.partitions.add(client);
+                this.pipelines.add(client.pipeline());
+                this.ring.addPartition();
+            }
+        } catch (IOException exc) {
+            close();
+            throw exc;
+        }
+    }
+
+    public int getPartitionCount() {
+        return this.partitions.size();
+    }
+
+    /**
+     * @param machineId id of a machine
+     * @return number of the partition owning the machine
+     */
+    public int partitionFor(int machineId) {
+        return this.ring.partitionFor(machineId);
+    }
+
+    /**
+     * Adds a machine to the partition owning its id
+     *
+     * @param machineId id of the new machine
+     * @param state     initial state, e.g. from {@link com.sofia.testvendingmachine.models.VendingMachine#saveState()}
+     */
+    public void addMachine(int machineId, @NonNull MachineState state) {
+        owner(machineId).putMachineState(machineId, state).sync();
+    }
+
+    /**
+     * @param machineId id of a machine in the fleet
+     * @return the machine; calls are routed to its owner, even after rebalancing
+     */
+    @NonNull
+    public IVendService getMachine(int machineId) {
+        return new RoutedMachine(machineId);
+    }
+
+    /**
+     * Queues the selection of a machine on the pipeline of the partition owning it.
+     * <p>
+     * Each partition has a single pipeline that is reused for every call; sync it before routing
+     * anything else to the same partition, or the requests are sent together.
+     *
+     * @param machineId id of a machine in the fleet
+     * @return a pipeline whose first result belongs to the machine selection
+     */
+    @NonNull
+    public VendClient.Pipeline pipeline(int machineId) {
+        return owner(machineId).selectMachine(machineId);
+    }
+
+    /**
+     * Adds a partition and moves the machines it now owns from their previous owners. Every other
+     * machine stays where it is.
+     * <p>
+     * Either every moving machine ends up on the new partition and the fleet routes to it, or the
+     * machines are put back on their previous owners and the fleet is left as it was.
+     *
+     * @param address address of the new, empty partition
+     * @return number of machines moved
+     * @throws IOException if the partition cannot be reached
+     * @throws IllegalStateException if a partition refused to give up or take a machine
+     * @throws java.io.UncheckedIOException if a partition connection failed while moving
+     */
+    public int addPartition(@NonNull InetSocketAddress address) throws IOException {
+        final VendClient added = VendClient.connect(address);
+        final VendClient.Pipeline addedPipeline = added.pipeline();
+        final ConsistentHashRing next = new ConsistentHashRing(this.ring);
+        final int partition = next.addPartition();
+
+        final List<Move> moves = new ArrayList<>();
+        boolean joined = false;
+        try {
+            // take the moving machines off every previous owner, a batch per round trip...
+            for (VendClient.Pipeline previous : this.pipelines) {
+                final int[] ids = (int[]) previous.getMachineIds().sync().get(0);
+                final List<Integer> moving = new ArrayList<>();
+                for (int id : ids) {
+                    if (next.partitionFor(id) == partition) {
+                        moving.add(id);
+                    }
+                }
+
+                for (int start = 0; start < moving.size(); start += TAKE_BATCH) {
+                    final int end = Math.min(moving.size(), start + TAKE_BATCH);
+                    for (int i = start; i < end; i++) {
+                        previous.takeMachineState(moving.get(i));
+                    }
+
+                    // keep every state taken, even if another take failed, so it can go back
+                    final List<Object> states = previous.syncResults();
+                    RuntimeException failure = null;
+                    for (int i = start; i < end; i++) {
+                        final Object state = states.get(i - start);
+                        if (state instanceof MachineState) {
+                            moves.add(new Move(previous, moving.get(i), (MachineState) state));
+                        } else if (failure == null) {
+                            failure = (RuntimeException) state;
+                        }
+                    }
+                    if (failure != null) {
+                        throw failure;
+                    }
+                }
+            }
+
+            // ...then hand them to the new partition, as many per round trip as fit
+            final List<Move> queued = new ArrayList<>();
+            RuntimeException failure = null;
+            for (Move move : moves) {
+                try {
+                    addedPipeline.putMachineState(move.machineId, move.state);
+                } catch (UnsupportedOperationException full) {
+                    failure = handOver(addedPipeline, queued);
+                    if (failure != null) {
+                        break;
+                    }
+                    addedPipeline.putMachineState(move.machineId, move.state);
+                }
+                queued.add(move);
+            }
+            if (failure == null) {
+                failure = handOver(addedPipeline, queued);
+            }
+            if (failure != null) {
+                throw failure;
+            }
+
+            joined = true;
+        } catch (RuntimeException exc) {
+            rollBack(moves, addedPipeline, exc);
+            throw exc;
+        } finally {
+            if (!joined) {
+                added.close();
+            }
+        }
+
+        this.partitions.add(added);
+        this.pipelines.add(addedPipeline);
+        this.ring = next;
+        return moves.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (VendClient partition : this.partitions) {
+            partition.close();
+        }
+    }
+
+    @NonNull
+    private VendClient.Pipeline owner(int machineId) {
+        return this.pipelines.get(this.ring.partitionFor(machineId));
+    }
+
+    /**
+     * Sends the queued puts of a rebalance and marks the machines that landed
+     *
+     * @return the first error, or null if every machine landed
+     */
+    @Nullable
+    private static RuntimeException handOver(@NonNull VendClient.Pipeline added, @NonNull List<Move> queued) {
+        final List<Object> results = added.syncResults();
+        RuntimeException failure = null;
+        for (int i = 0; i < results.size(); i++) {
+            if (results.get(i) instanceof RuntimeException) {
+                if (failure == null) {
+                    failure = (RuntimeException) results.get(i);
+                }
+            } else {
+                queued.get(i).landed = true;
+            }
+        }
+
+        queued.clear();
+        return failure;
+    }
+
+    /**
+     * Puts machines taken during a failed rebalance back on their previous owners; failures here
+     * are added to the original exception
+     */
+    private static void rollBack(@NonNull List<Move> moves,
+                                 @NonNull VendClient.Pipeline added,
+                                 @NonNull RuntimeException cause) {
+        // the states are still in memory; only the copies that reached the new partition go
+        try {
+            for (Move move : moves) {
+                if (move.landed) {
+                    added.takeMachineState(move.machineId);
+                }
+            }
+            added.syncResults();
+        } catch (RuntimeException exc) {
+            cause.addSuppressed(exc);
+        }
+
+        for (Move move : moves) {
+            try {
+                move.from.putMachineState(move.machineId, move.state).sync();
+            } catch (RuntimeException exc) {
+                cause.addSuppressed(exc);
+            }
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.sofia.testvendingmachine.fleet;
+
+import com.sofia.testvendingmachine.remote.VendServer;
+import com.sofia.testvendingmachine.services.IVendService;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+
+/**
+ * Engine process for one partition of a {@link PartitionedFleet}: a {@link VendServer} hosting
+ * machines by id, starting empty.
+ * <p>
+ * Usage: {@code VendPartition [port [bind address]]}. Prints the port it listens on, then serves
+ * until its standard input is closed.
+ */
+public final class VendPartition {
+    public static final String READY_PREFIX = "vend partition listening on port ";
+
+    private VendPartition() {
+        // entry point only
+    }
+
+    public static void main(String[] args) throws IOException {
+        final int port = args.length > 0 ? Integer.parseInt(args[0]) : 0;
+        final InetAddress bind = args.length > 1
+                ? InetAddress.getByName(args[1])
+                : InetAddress.getLoopbackAddress();
+
+        try (VendServer server = new VendServer(
+                new HashMap<Integer, IVendService>(), new InetSocketAddress(bind, port))) {
+            server.start();
+            System.out.println(READY_PREFIX + server.getLocalPort());
+            System.out.flush();
+
+            // the parent stops the partition by closing its input
+            while (System.in.read() >= 0) {
+                // ignore anything else sent
+            }
+        }
+    }
+}
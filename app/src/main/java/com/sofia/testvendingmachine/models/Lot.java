@@ -0,0 +1,67 @@
+package com.sofia.testvendingmachine.models;
+
+import java.util.Locale;
+
+/**
+ * A lot of units of the same product sharing one expiry time, tracked by a {@link Stock}
+ */
+public class Lot implements Comparable<Lot> {
+    /**
+     * expiry of lots that never expire
+     */
+    public static final long NEVER_EXPIRES = Long.MAX_VALUE;
+
+    /**
+     * expiry as milliseconds since the epoch; the lot is expired from this instant on
+     */
+    private final long expiresAtMillis;
+
+    private int quantity;
+
+    /**
+     * Construct a lot instance
+     *
+     * @param quantity        number of units in the lot
+     * @param expiresAtMillis expiry as milliseconds since the epoch, or {@link #NEVER_EXPIRES}
+     */
+    public Lot(int quantity, long expiresAtMillis) {
+        if (quantity < 0) {
+            throw new IllegalArgumentException("quantity must be zero or greater");
+        }
+
+        this.quantity = quantity;
+        this.expiresAtMillis = expiresAtMillis;
+    }
+
+    public int getQuantity() {
+        return quantity;
+    }
+
+    public long getExpiresAtMillis() {
+        return expiresAtMillis;
+    }
+
+    public boolean isExpired(long nowMillis) {
+        return expiresAtMillis <= nowMillis;
+    }
+
+    /**
+     * Takes one unit out of the lot; only the owning {@link Stock} may do this so its total stays
+     * in sync
+     */
+    void reduceQuantity() {
+        this.quantity--;
+    }
+
+    @Override
+    public int compareTo(Lot other) {
+        return Long.compare(expiresAtMillis, other.expiresAtMillis);
+    }
+
+    @Override
+    public String toString() {
+        return expiresAtMillis == NEVER_EXPIRES
+                ? String.format(Locale.US, "x%d", quantity)
+                : String.format(Locale.US, "x%d until %d", quantity, expiresAtMillis);
+    }
+}
@@ -0,0 +1,105 @@
+package com.sofia.testvendingmachine.models;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Immutable, consistent view of a {@link VendingMachine} for monitoring: balances, stock counts
+ * and the display message all come from the same moment.
+ * <p>
+ * Snapshots are numbered; a higher version was published after a lower one by the same machine.
+ */
+public final class MachineSnapshot {
+    private final long version;
+
+    private final int acceptedUsc;
+
+    private final int uscInReturn;
+
+    /**
+     * available units per slot; never handed out
+     */
+    @NonNull
+    private final int[] available;
+
+    @NonNull
+    private final String displayMessage;
+
+    /**
+     * Construct a snapshot instance
+     *
+     * @param version        number of the snapshot
+     * @param acceptedUsc    in-flight currency, in cents
+     * @param uscInReturn    value of the coins in the return, in cents
+     * @param available      available units per slot; copied
+     * @param displayMessage message the display shows next
+     */
+    public MachineSnapshot(long version,
+                           int acceptedUsc,
+                           int uscInReturn,
+                           @NonNull int[] available,
+                           @NonNull String displayMessage) {
+        this(version, acceptedUsc, uscInReturn, displayMessage, available.clone());
+    }
+
+    /**
+     * Construct a snapshot instance that takes ownership of the stock counts, for
+     * {@link VendingMachine} to publish without copying a freshly built array
+     *
+     * @param available available units per slot; must not be changed afterwards
+     */
+    MachineSnapshot(long version,
+                    int acceptedUsc,
+                    int uscInReturn,
+                    @NonNull String displayMessage,
+                    @NonNull int[] available) {
+        this.version = version;
+        this.acceptedUsc = acceptedUsc;
+        this.uscInReturn = uscInReturn;
+        this.available = available;
+        this.displayMessage = displayMessage;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public int getAcceptedUsc() {
+        return acceptedUsc;
+    }
+
+    public int getUscInReturn() {
+        return uscInReturn;
+    }
+
+    public int getSlotCount() {
+        return available.length;
+    }
+
+    /**
+     * @param productIndex the index of a product
+     * @return units of the product available
+     */
+    public int getAvailable(int productIndex) {
+        return available[productIndex];
+    }
+
+    @NonNull
+    public String getDisplayMessage() {
+        return displayMessage;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                Locale.US,
+                "v%d $%3.2f accepted, $%3.2f in return, stock %s, \"%s\"",
+                version,
+                (float) acceptedUsc / 100,
+                (float) uscInReturn / 100,
+                Arrays.toString(available),
+                displayMessage);
+    }
+}
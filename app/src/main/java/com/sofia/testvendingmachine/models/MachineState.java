@@ -0,0 +1,112 @@
+package com.sofia.testvendingmachine.models;
+
+import androidx.annotation.NonNull;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Detached copy of everything a {@link VendingMachine} holds, used to move a machine from one
+ * engine process to another.
+ * <p>
+ * Restoring a state copies its stock, so one state can be restored into several machines.
+ */
+public final class MachineState {
+    @NonNull
+    private final List<Stock> stock;
+
+    @NonNull
+    private final List<PricingRule> pricingRules;
+
+    private final int currencyInUsc;
+
+    private final int returnInUsc;
+
+    private final int changeInUsc;
+
+    @NonNull
+    private final String lastMessage;
+
+    private final long snapshotVersion;
+
+    /**
+     * Construct a state instance for a machine that has not published any snapshot yet
+     *
+     * @param stock         stock of every slot, in slot order
+     * @param pricingRules  pricing rules in effect
+     * @param currencyInUsc in-flight currency, in cents
+     * @param returnInUsc   value of the coins in the return, in cents
+     * @param changeInUsc   change available, in cents
+     * @param lastMessage   message the display shows next
+     */
+    public MachineState(@NonNull List<Stock> stock,
+                        @NonNull List<PricingRule> pricingRules,
+                        int currencyInUsc,
+                        int returnInUsc,
+                        int changeInUsc,
+                        @NonNull String lastMessage) {
+        this(stock, pricingRules, currencyInUsc, returnInUsc, changeInUsc, lastMessage, 0);
+    }
+
+    /**
+     * Construct a state instance
+     *
+     * @param stock           stock of every slot, in slot order
+     * @param pricingRules    pricing rules in effect
+     * @param currencyInUsc   in-flight currency, in cents
+     * @param returnInUsc     value of the coins in the return, in cents
+     * @param changeInUsc     change available, in cents
+     * @param lastMessage     message the display shows next
+     * @param snapshotVersion version of the last snapshot the machine published, or 0 if none; the
+     *                        restored machine continues counting from there
+     */
+    public MachineState(@NonNull List<Stock> stock,
+                        @NonNull List<PricingRule> pricingRules,
+                        int currencyInUsc,
+                        int returnInUsc,
+                        int changeInUsc,
+                        @NonNull String lastMessage,
+                        long snapshotVersion) {
+        this.stock = Collections.unmodifiableList(stock);
+        this.pricingRules = Collections.unmodifiableList(pricingRules);
+        this.currencyInUsc = currencyInUsc;
+        this.returnInUsc = returnInUsc;
+        this.changeInUsc = changeInUsc;
+        this.lastMessage = lastMessage;
+        this.snapshotVersion = snapshotVersion;
+    }
+
+    @NonNull
+    public List<Stock> getStock() {
+        return stock;
+    }
+
+    @NonNull
+    public List<PricingRule> getPricingRules() {
+        return pricingRules;
+    }
+
+    public int getCurrencyInUsc() {
+        return currencyInUsc;
+    }
+
+    public int getReturnInUsc() {
+        return returnInUsc;
+    }
+
+    public int getChangeInUsc() {
+        return changeInUsc;
+    }
+
+    @NonNull
+    public String getLastMessage() {
+        return lastMessage;
+    }
+
+    /**
+     * @return version of the last snapshot the machine published, or 0 if none
+     */
+    public long getSnapshotVersion() {
+        return snapshotVersion;
+    }
+}
@@ -0,0 +1,190 @@
+package com.sofia.testvendingmachine.models;
+
+import androidx.annotation.NonNull;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.TreeSet;
+
+/**
+ * Resolves the effective price of each product in a {@link VendingMachine}.
+ * <p>
+ * Rules are compiled once into a flat table of prices per time segment and slot, so resolving a
+ * price on the purchase path is two array reads and does not allocate. Changing the rules compiles
+ * a new table and swaps it in atomically; readers see either the old table or the new one.
+ */
+public final class PricingEngine {
+    private static final long MILLIS_PER_MINUTE = 60 * 1000L;
+    private static final long MILLIS_PER_DAY = PricingRule.MINUTES_PER_DAY * MILLIS_PER_MINUTE;
+
+    /**
+     * Immutable compiled form of a rule set
+     */
+    private static final class PriceTable {
+        /**
+         * segment index for every minute of the day
+         */
+        @NonNull
+        final short[] segmentOfMinute;
+
+        /**
+         * prices in cents, indexed by segment * slotCount + slot
+         */
+        @NonNull
+        final int[] prices;
+
+        @NonNull
+        final List<PricingRule> rules;
+
+        PriceTable(@NonNull short[] segmentOfMinute, @NonNull int[] prices, @NonNull List<PricingRule> rules) {
+            this.segmentOfMinute = segmentOfMinute;
+            this.prices = prices;
+            this.rules = rules;
+        }
+    }
+
+    /**
+     * base price of every slot, in cents (100th of a US dollar)
+     */
+    @NonNull
+    private final int[] basePrices;
+
+    @NonNull
+    private final Clock clock;
+
+    @NonNull
+    private final TimeZone timeZone;
+
+    @NonNull
+    private volatile PriceTable table;
+
+    /**
+     * Construct an engine using the system clock and time zone
+     *
+     * @param products products of the machine, in slot order
+     */
+    public PricingEngine(@NonNull List<Product> products) {
+        this(products, Clock.systemDefaultZone());
+    }
+
+    /**
+     * Construct an engine
+     *
+     * @param products products of the machine, in slot order
+     * @param clock    source of the current time; its zone decides when a day starts
+     */
+    public PricingEngine(@NonNull List<Product> products, @NonNull Clock clock) {
+        this.basePrices = new int[products.size()];
+        for (int i = 0; i < this.basePrices.length; i++) {
+            this.basePrices[i] = products.get(i).getCostInUsc();
+        }
+
+        this.clock = clock;
+        this.timeZone = TimeZone.getTimeZone(clock.getZone());
+        this.table = compile(Collections.<PricingRule>emptyList());
+    }
+
+    /**
+     * Replaces the current rules; rules that overlap are applied in list order
+     *
+     * @param rules the new rules, may be empty to go back to base prices
+     */
+    public void setRules(@NonNull List<PricingRule> rules) {
+        this.table = compile(rules);
+    }
+
+    /**
+     * @return number of slots the engine prices
+     */
+    public int getSlotCount() {
+        return this.basePrices.length;
+    }
+
+    /**
+     * @return source of the current time for this engine, and for the machine using it
+     */
+    @NonNull
+    public Clock getClock() {
+        return this.clock;
+    }
+
+    @NonNull
+    public List<PricingRule> getRules() {
+        return this.table.rules;
+    }
+
+    /**
+     * Effective price of a slot right now
+     *
+     * @param slot product index
+     * @return price in cents (100th of a US dollar)
+     */
+    public int getPriceInUsc(int slot) {
+        final long now = this.clock.millis();
+        final long local = now + this.timeZone.getOffset(now);
+        final int minuteOfDay = (int) (((local % MILLIS_PER_DAY) + MILLIS_PER_DAY) % MILLIS_PER_DAY / MILLIS_PER_MINUTE);
+        return getPriceInUsc(slot, minuteOfDay);
+    }
+
+    /**
+     * Effective price of a slot at a given minute of the day
+     *
+     * @param slot        product index
+     * @param minuteOfDay minute of the day, local time
+     * @return price in cents (100th of a US dollar)
+     * @throws IndexOutOfBoundsException if the slot or minute does not exist
+     */
+    public int getPriceInUsc(int slot, int minuteOfDay) {
+        // the table is flat, so an unchecked slot would read another segment's price
+        if (slot < 0 || slot >= this.basePrices.length) {
+            throw new IndexOutOfBoundsException(
+                    "Only " + this.basePrices.length + " slots available but slot " + slot + " was requested");
+        }
+
+        final PriceTable current = this.table;
+        return current.prices[current.segmentOfMinute[minuteOfDay] * this.basePrices.length + slot];
+    }
+
+    @NonNull
+    private PriceTable compile(@NonNull List<PricingRule> rules) {
+        final List<PricingRule> copy = Collections.unmodifiableList(new ArrayList<>(rules));
+
+        // every rule edge starts a new segment; prices are constant within a segment
+        final TreeSet<Integer> boundaries = new TreeSet<>();
+        boundaries.add(0);
+        for (PricingRule rule : copy) {
+            boundaries.add(rule.getStartMinuteOfDay());
+            boundaries.add(rule.getEndMinuteOfDay());
+        }
+
+        final int slotCount = this.basePrices.length;
+        final short[] segmentOfMinute = new short[PricingRule.MINUTES_PER_DAY];
+        final int[] prices = new int[boundaries.size() * slotCount];
+
+        short segment = 0;
+        for (int start : boundaries) {
+            final Integer next = boundaries.higher(start);
+            final int end = next == null ? PricingRule.MINUTES_PER_DAY : next;
+            for (int minute = start; minute < end; minute++) {
+                segmentOfMinute[minute] = segment;
+            }
+
+            for (int slot = 0; slot < slotCount; slot++) {
+                int price = this.basePrices[slot];
+                for (PricingRule rule : copy) {
+                    if (rule.appliesAt(start) && rule.appliesTo(slot)) {
+                        price = rule.apply(price);
+                    }
+                }
+                prices[segment * slotCount + slot] = price;
+            }
+
+            segment++;
+        }
+
+        return new PriceTable(segmentOfMinute, prices, copy);
+    }
+}
@@ -0,0 +1,183 @@
+package com.sofia.testvendingmachine.models;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * A rule that adjusts the price of products in a {@link VendingMachine} during a daily time
+ * window, e.g. a happy-hour discount, a bundle deal on a set of slots, or a location surcharge.
+ * <p>
+ * Rules are immutable; they are compiled into a lookup table by a {@link PricingEngine}.
+ */
+public final class PricingRule {
+    public static final int MINUTES_PER_DAY = 24 * 60;
+
+    /**
+     * How {@link #getAmount()} is applied to a price
+     */
+    public enum Adjustment {
+        /**
+         * amount is a percentage of the current price; negative for a discount
+         */
+        PERCENT,
+
+        /**
+         * amount is in cents (100th of a US dollar); negative for a discount
+         */
+        ABSOLUTE
+    }
+
+    private final int startMinuteOfDay;
+
+    private final int endMinuteOfDay;
+
+    /**
+     * sorted slot (product index) numbers; empty means every slot
+     */
+    @NonNull
+    private final int[] slots;
+
+    @NonNull
+    private final Adjustment adjustment;
+
+    private final int amount;
+
+    /**
+     * Construct a rule instance
+     *
+     * @param startMinuteOfDay first minute of the day (local time) the rule applies, inclusive
+     * @param endMinuteOfDay   minute of the day the rule stops applying, exclusive; may be lower
+     *                         than the start for windows crossing midnight, or equal to it for a
+     *                         rule that applies all day
+     * @param slots            product indexes the rule applies to; empty for every product
+     * @param adjustment       how the amount is applied
+     * @param amount           percentage or cents to add to the price; negative for a discount
+     */
+    public PricingRule(int startMinuteOfDay,
+                       int endMinuteOfDay,
+                       @NonNull int[] slots,
+                       @NonNull Adjustment adjustment,
+                       int amount) {
+        if (startMinuteOfDay < 0 || startMinuteOfDay >= MINUTES_PER_DAY) {
+            throw new IllegalArgumentException("startMinuteOfDay must be within a day");
+        }
+
+        if (endMinuteOfDay < 0 || endMinuteOfDay >= MINUTES_PER_DAY) {
+            throw new IllegalArgumentException("endMinuteOfDay must be within a day");
+        }
+
+        for (int slot : slots) {
+            if (slot < 0) {
+                throw new IllegalArgumentException("slots must be zero or greater");
+            }
+        }
+
+        if (adjustment == Adjustment.PERCENT && amount < -100) {
+            throw new IllegalArgumentException("a discount may not exceed 100 percent");
+        }
+
+        this.startMinuteOfDay = startMinuteOfDay;
+        this.endMinuteOfDay = endMinuteOfDay;
+        this.slots = slots.clone();
+        Arrays.sort(this.slots);
+        this.adjustment = adjustment;
+        this.amount = amount;
+    }
+
+    /**
+     * Rule that changes prices by a percentage during a time window
+     */
+    @NonNull
+    public static PricingRule percent(int startMinuteOfDay, int endMinuteOfDay, @NonNull int[] slots, int percent) {
+        return new PricingRule(startMinuteOfDay, endMinuteOfDay, slots, Adjustment.PERCENT, percent);
+    }
+
+    /**
+     * Rule that changes prices by a fixed amount of cents during a time window
+     */
+    @NonNull
+    public static PricingRule absolute(int startMinuteOfDay, int endMinuteOfDay, @NonNull int[] slots, int usc) {
+        return new PricingRule(startMinuteOfDay, endMinuteOfDay, slots, Adjustment.ABSOLUTE, usc);
+    }
+
+    public int getStartMinuteOfDay() {
+        return startMinuteOfDay;
+    }
+
+    public int getEndMinuteOfDay() {
+        return endMinuteOfDay;
+    }
+
+    /**
+     * @return sorted product indexes the rule applies to; empty for every product
+     */
+    @NonNull
+    public int[] getSlots() {
+        return slots.clone();
+    }
+
+    @NonNull
+    public Adjustment getAdjustment() {
+        return adjustment;
+    }
+
+    public int getAmount() {
+        return amount;
+    }
+
+    /**
+     * @param minuteOfDay minute of the day, local time
+     * @return true if the rule is active at the given minute
+     */
+    public boolean appliesAt(int minuteOfDay) {
+        if (startMinuteOfDay == endMinuteOfDay) {
+            return true;
+        }
+
+        if (startMinuteOfDay < endMinuteOfDay) {
+            return minuteOfDay >= startMinuteOfDay && minuteOfDay < endMinuteOfDay;
+        }
+
+        // window crosses midnight
+        return minuteOfDay >= startMinuteOfDay || minuteOfDay < endMinuteOfDay;
+    }
+
+    /**
+     * @param slot product index
+     * @return true if the rule covers the given product
+     */
+    public boolean appliesTo(int slot) {
+        return slots.length == 0 || Arrays.binarySearch(slots, slot) >= 0;
+    }
+
+    /**
+     * Applies this rule to a price, never going below zero
+     *
+     * @param costInUsc current price in cents (100th of a US dollar)
+     * @return adjusted price in cents
+     */
+    public int apply(int costInUsc) {
+        long adjusted;
+        if (adjustment == Adjustment.PERCENT) {
+            adjusted = costInUsc + (long) costInUsc * amount / 100;
+        } else {
+            adjusted = (long) costInUsc + amount;
+        }
+
+        return (int) Math.max(0, Math.min(Integer.MAX_VALUE, adjusted));
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                Locale.US,
+                "%02d:%02d-%02d:%02d %s %d %s",
+                startMinuteOfDay / 60, startMinuteOfDay % 60,
+                endMinuteOfDay / 60, endMinuteOfDay % 60,
+                adjustment,
+                amount,
+                slots.length == 0 ? "all" : Arrays.toString(slots));
+    }
+}
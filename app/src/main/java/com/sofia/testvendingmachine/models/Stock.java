@@ -3,23 +3,56 @@ package com.sofia.testvendingmachine.models;
 
 import androidx.annotation.NonNull;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Locale;
+import java.util.PriorityQueue;
 
 /**
  * The stock of a product for use in a {@link VendingMachine}
+ * <p>
+ * Units are tracked per {@link Lot} in a priority queue ordered by expiry, so the earliest-expiring
+ * units always sell first.
  */
 public class Stock {
     @NonNull
     private final Product product;
+
+    @NonNull
+    private final PriorityQueue<Lot> lots = new PriorityQueue<>();
+
+    /**
+     * total of all lot quantities
+     */
     private int available;
 
+    /**
+     * Construct a stock instance with units that never expire
+     *
+     * @param product   the product
+     * @param available number of units
+     */
     public Stock(@NonNull Product product, int available) {
         if (available < 0) {
             throw new IllegalArgumentException("stock must be zero or greater");
         }
 
         this.product = product;
-        this.available = available;
+        addLot(new Lot(available, Lot.NEVER_EXPIRES));
+    }
+
+    /**
+     * Construct a stock instance from lots
+     *
+     * @param product the product
+     * @param lots    lots of the product, in any order; copied, so the caller keeps its lots
+     */
+    public Stock(@NonNull Product product, @NonNull List<Lot> lots) {
+        this.product = product;
+        for (Lot lot : lots) {
+            addLot(lot);
+        }
     }
 
     @NonNull
@@ -32,7 +65,46 @@ public class Stock {
     }
 
     /**
-     * Reduces the available stock of this product by one.
+     * Restocks the product with a new lot; for stock in a machine, use
+     * {@link VendingMachine#restock(int, Lot)} so the machine publishes the change
+     *
+     * @param lot the lot to add; empty lots are ignored. The stock keeps its own copy, since it
+     *            counts down the quantity of its lots as it sells
+     */
+    public void addLot(@NonNull Lot lot) {
+        if (lot.getQuantity() == 0) {
+            return;
+        }
+
+        this.lots.add(new Lot(lot.getQuantity(), lot.getExpiresAtMillis()));
+        this.available += lot.getQuantity();
+    }
+
+    /**
+     * Lots currently in stock, earliest expiry first
+     *
+     * @return copies of the lots
+     */
+    @NonNull
+    public List<Lot> getLots() {
+        final List<Lot> sorted = new ArrayList<>(this.lots.size());
+        for (Lot lot : this.lots) {
+            sorted.add(new Lot(lot.getQuantity(), lot.getExpiresAtMillis()));
+        }
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * @return expiry of the lot that sells next, or {@link Lot#NEVER_EXPIRES} if none is in stock
+     */
+    public long getEarliestExpiresAtMillis() {
+        final Lot next = this.lots.peek();
+        return next == null ? Lot.NEVER_EXPIRES : next.getExpiresAtMillis();
+    }
+
+    /**
+     * Reduces the available stock of this product by one, taking it from the earliest-expiring lot.
      *
      * @throws UnsupportedOperationException if no product is currently available
      */
@@ -45,9 +117,36 @@ public class Stock {
                             this.product));
         }
 
+        // reducing the head lot leaves its expiry, and therefore the heap order, unchanged
+        final Lot next = this.lots.peek();
+        next.reduceQuantity();
+        if (next.getQuantity() == 0) {
+            this.lots.poll();
+        }
+
         this.available--;
     }
 
+    /**
+     * Removes every lot that is expired at the given time; only touches expired lots, so it is
+     * cheap to call often.
+     *
+     * @param nowMillis current time as milliseconds since the epoch
+     * @return number of units removed
+     */
+    public int removeExpired(long nowMillis) {
+        int removed = 0;
+        Lot next = this.lots.peek();
+        while (next != null && next.isExpired(nowMillis)) {
+            this.lots.poll();
+            removed += next.getQuantity();
+            next = this.lots.peek();
+        }
+
+        this.available -= removed;
+        return removed;
+    }
+
     @Override
     public String toString() {
         return String.format(
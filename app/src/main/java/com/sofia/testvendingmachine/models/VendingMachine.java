@@ -1,9 +1,11 @@
 package com.sofia.testvendingmachine.models;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import com.sofia.testvendingmachine.services.IVendService;
 import com.annimon.stream.Stream;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 
@@ -31,6 +33,9 @@ public class VendingMachine implements IVendService {
 
     private final List<Stock> availableStock;
 
+    @NonNull
+    private final PricingEngine pricingEngine;
+
     /**
      * In-flight/current value of currency provided by the current/last user
      * for use in purchases
@@ -58,18 +63,95 @@ public class VendingMachine implements IVendService {
     @NonNull
     private String lastMessage = MSG_STATIC_INSERT_COIN;
 
+    /**
+     * Latest consistent view of this machine for monitoring; replaced by every call that changes
+     * the machine, so readers never wait for or slow down a purchase
+     */
+    @NonNull
+    private volatile MachineSnapshot snapshot;
+
     /**
      * Construct a machine instance
      *
      * @param availableStock available products and their current stock
      */
     public VendingMachine(@NonNull List<Stock> availableStock) {
+        this(availableStock, null);
+    }
+
+    /**
+     * Construct a machine instance with dynamic pricing
+     *
+     * @param availableStock available products and their current stock
+     * @param pricingEngine  engine resolving the effective price of each product; when null,
+     *                       products always sell at their base price. Its clock also decides
+     *                       when lots expire on purchase
+     * @throws IllegalArgumentException if the engine prices a different number of slots
+     */
+    public VendingMachine(@NonNull List<Stock> availableStock, @Nullable PricingEngine pricingEngine) {
         this.availableStock = availableStock;
+        this.pricingEngine = pricingEngine != null
+                ? pricingEngine
+                : new PricingEngine(Stream.of(availableStock).map(Stock::getProduct).toList());
+
+        if (this.pricingEngine.getSlotCount() != availableStock.size()) {
+            throw new IllegalArgumentException(
+                    "pricing engine has " + this.pricingEngine.getSlotCount()
+                            + " slots but the machine has " + availableStock.size());
+        }
 
         // initialize first message, just in case INSERT COINS is not the default based on the available stock provided
         this.updateAndGetCurrentMessageForDisplay();
     }
 
+    /**
+     * Construct a machine instance from a state saved by {@link #saveState()}
+     *
+     * @param state state to continue from; the machine copies its stock, so a state may be
+     *              restored more than once
+     */
+    public VendingMachine(@NonNull MachineState state) {
+        this(copyStock(state.getStock()));
+        this.pricingEngine.setRules(state.getPricingRules());
+        this.currencyInUsc = state.getCurrencyInUsc();
+        this.returnInUsc = state.getReturnInUsc();
+        this.changeInUsc = state.getChangeInUsc();
+        this.lastMessage = state.getLastMessage();
+
+        // keep counting where the machine left off, so versions never go backwards when it moves
+        publish(state.getSnapshotVersion() + 1);
+    }
+
+    /**
+     * Copies the full state of this machine, e.g. to move it to another process
+     *
+     * @return a state that shares nothing mutable with this machine
+     */
+    @NonNull
+    public MachineState saveState() {
+        return new MachineState(
+                copyStock(this.availableStock),
+                this.pricingEngine.getRules(),
+                this.currencyInUsc,
+                this.returnInUsc,
+                this.changeInUsc,
+                this.lastMessage,
+                this.snapshot.getVersion());
+    }
+
+    /**
+     * @return stock with the same products and lots that shares no lots with the given stock
+     */
+    @NonNull
+    private static List<Stock> copyStock(@NonNull List<Stock> stock) {
+        final List<Stock> copy = new ArrayList<>(stock.size());
+        for (Stock slot : stock) {
+            copy.add(new Stock(slot.getProduct(), slot.getLots()));
+        }
+
+        return copy;
+    }
+
     @Override
     public String toString() {
         return String.format(Locale.US,
@@ -94,10 +176,12 @@ public class VendingMachine implements IVendService {
                         Locale.US,
                         MSG_STATIC_FORMAT_AVAILABLE,
                         (float) this.currencyInUsc / 100);
+                publish();
                 return true;
             default:
                 // invalid coins: pennies, drachmas, kronors, pfennigs, etc.
                 this.returnInUsc += usc;
+                publish();
                 return false;
         }
     }
@@ -116,8 +200,8 @@ public class VendingMachine implements IVendService {
             // REQUIREMENT: When the machine is not able to make change with the money in the machine for any of the items that it sells, it will display EXACT CHANGE ONLY instead of INSERT COIN.
             // Personal note: The provided description is a bit trivialized. The real logic needs to check change coins available and the matrix of what possible combinations can provide what values, the minimum and maximum amount of value for an accepted coin, whether or not accepted coins may also be used in change (for example, paper dollars can't be returned as change, but other coins should be able to funnel through the system as change if too many are provided), the price of all items, and figure out what the limits of all those items combined are; which gets complicated;
             // therefore, sticking with the naive algorithm of is there enough change value to at least match the price of the most expensive item
-            for (Stock stock : this.availableStock) {
-                if (stock.getProduct().getCostInUsc() > this.changeInUsc) {
+            for (int i = 0; i < this.availableStock.size(); i++) {
+                if (this.pricingEngine.getPriceInUsc(i) > this.changeInUsc) {
                     this.lastMessage = MSG_STATIC_EXACT_CHANGE_ONLY;
                     break;
                 }
@@ -129,6 +213,7 @@ public class VendingMachine implements IVendService {
                     (float) this.currencyInUsc / 100);
         }
 
+        publish();
         return msgToDeliver;
     }
 
@@ -144,26 +229,41 @@ public class VendingMachine implements IVendService {
 
     @Override
     public boolean purchaseProduct(int productIndex) {
-        return productIndex < availableStock.size() &&
-                tryToPurchase(availableStock.get(productIndex));
+        final boolean purchased = productIndex < availableStock.size() &&
+                tryToPurchase(availableStock.get(productIndex), productIndex);
+        publish();
+        return purchased;
+    }
+
+    @Override
+    public int getPriceInUsc(int productIndex) {
+        return this.pricingEngine.getPriceInUsc(productIndex);
     }
 
-    private boolean tryToPurchase(@NonNull final Stock stock) {
+    @NonNull
+    public PricingEngine getPricingEngine() {
+        return pricingEngine;
+    }
+
+    private boolean tryToPurchase(@NonNull final Stock stock, int productIndex) {
+        // expired units must never sell; only looks at the head lot unless something expired
+        stock.removeExpired(this.pricingEngine.getClock().millis());
+
         // check stock
         if (stock.getAvailable() == 0) {
             this.lastMessage = MSG_NORMAL_SOLD_OUT;
             return false;
         }
 
-        // check available currency compared to price
-        Product product = stock.getProduct();
+        // check available currency compared to the price in effect right now
+        final int costInUsc = this.pricingEngine.getPriceInUsc(productIndex);
 
-        if (this.currencyInUsc - product.getCostInUsc() < 0) {
+        if (this.currencyInUsc - costInUsc < 0) {
             // not enough money
             this.lastMessage = String.format(
                     Locale.US,
                     MSG_FORMAT_PRICE,
-                    (float) product.getCostInUsc() / 100);
+                    (float) costInUsc / 100);
             return false;
         }
 
@@ -173,7 +273,7 @@ public class VendingMachine implements IVendService {
         stock.reduceAvailable();
 
         // take cost from active currency...
-        this.currencyInUsc -= product.getCostInUsc();
+        this.currencyInUsc -= costInUsc;
 
         // ...and add it to the stock of change available
         // TODO: until exact coin change is implemented (as opposed to just value processing), the following does not make sense since the machine would never run out of change
@@ -191,6 +291,40 @@ public class VendingMachine implements IVendService {
         return true;
     }
 
+    /**
+     * Removes expired lots from every slot in one pass. Slots whose next lot is still fresh are
+     * skipped without touching their lots.
+     *
+     * @param nowMillis current time as milliseconds since the epoch
+     * @return number of units removed across all slots
+     */
+    public int removeExpiredStock(long nowMillis) {
+        int removed = 0;
+        for (Stock stock : this.availableStock) {
+            if (stock.getEarliestExpiresAtMillis() <= nowMillis) {
+                removed += stock.removeExpired(nowMillis);
+            }
+        }
+
+        if (removed > 0) {
+            publish();
+        }
+        return removed;
+    }
+
+    /**
+     * Restocks a slot with a new lot and publishes the new stock count. Stock in use by a machine
+     * must be restocked through here; changing it directly leaves {@link #snapshot()} stale.
+     *
+     * @param slot product index
+     * @param lot  the lot to add; the slot keeps its own copy
+     * @throws IndexOutOfBoundsException if the slot does not exist
+     */
+    public void restock(int slot, @NonNull Lot lot) {
+        this.availableStock.get(slot).addLot(lot);
+        publish();
+    }
+
     @Override
     public void returnCoins() {
         // these two statements should be transactional (instead of the current atomic but separate) to ensure thread-safety, but this isn't banking software—it is a demo for crying out loud
@@ -204,6 +338,39 @@ public class VendingMachine implements IVendService {
     @Override
     public void collectCoins() {
         this.returnInUsc = 0;
+        publish();
+    }
+
+    @NonNull
+    @Override
+    public MachineSnapshot snapshot() {
+        return this.snapshot;
+    }
+
+    /**
+     * Publishes the current state for {@link #snapshot()}; call after every change
+     */
+    private void publish() {
+        final MachineSnapshot previous = this.snapshot;
+        publish(previous == null ? 1 : previous.getVersion() + 1);
+    }
+
+    /**
+     * Publishes the current state as the given version
+     */
+    private void publish(long version) {
+        final int[] available = new int[this.availableStock.size()];
+        for (int i = 0; i < available.length; i++) {
+            available[i] = this.availableStock.get(i).getAvailable();
+        }
+
+        // the array is never shared, so the snapshot keeps it instead of copying it again
+        this.snapshot = new MachineSnapshot(
+                version,
+                this.currencyInUsc,
+                this.returnInUsc,
+                this.lastMessage,
+                available);
     }
 
     @NonNull
@@ -0,0 +1,353 @@
+package com.sofia.testvendingmachine.remote;
+
+import androidx.annotation.NonNull;
+
+import com.sofia.testvendingmachine.models.MachineSnapshot;
+import com.sofia.testvendingmachine.models.MachineState;
+import com.sofia.testvendingmachine.models.Product;
+import com.sofia.testvendingmachine.services.IVendService;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Client for a {@link VendServer}; drives the remote machine as if it were a local
+ * {@link IVendService}.
+ * <p>
+ * Each {@link IVendService} call is one round trip. Use {@link #pipeline()} to send many requests
+ * with one write and read all of their responses afterwards.
+ * <p>
+ * Not thread-safe; use one client per thread.
+ */
+public final class VendClient implements IVendService, Closeable {
+    /**
+     * Requests queued to be sent in one batch
+     */
+    public final class Pipeline {
+        @NonNull
+        private final ByteBuffer requests = ByteBuffer.allocate(2 * (VendProtocol.HEADER_SIZE + VendProtocol.MAX_PAYLOAD_SIZE));
+
+        @NonNull
+        private final List<Byte> ops = new ArrayList<>();
+
+        private Pipeline() {
+        }
+
+        @NonNull
+        public Pipeline insertCoin(int usc) {
+            return add(VendProtocol.OP_INSERT_COIN, usc);
+        }
+
+        @NonNull
+        public Pipeline purchaseProduct(int productIndex) {
+            return add(VendProtocol.OP_PURCHASE_PRODUCT, productIndex);
+        }
+
+        @NonNull
+        public Pipeline returnCoins() {
+            return add(VendProtocol.OP_RETURN_COINS, 0);
+        }
+
+        @NonNull
+        public Pipeline collectCoins() {
+            return add(VendProtocol.OP_COLLECT_COINS, 0);
+        }
+
+        @NonNull
+        public Pipeline updateAndGetCurrentMessageForDisplay() {
+            return add(VendProtocol.OP_DISPLAY, 0);
+        }
+
+        @NonNull
+        public Pipeline getAcceptedUsc() {
+            return add(VendProtocol.OP_ACCEPTED_USC, 0);
+        }
+
+        @NonNull
+        public Pipeline getUscInReturn() {
+            return add(VendProtocol.OP_USC_IN_RETURN, 0);
+        }
+
+        @NonNull
+        public Pipeline getPriceInUsc(int productIndex) {
+            return add(VendProtocol.OP_PRICE, productIndex);
+        }
+
+        @NonNull
+        public Pipeline getProducts() {
+            return add(VendProtocol.OP_PRODUCTS, 0);
+        }
+
+        @NonNull
+        public Pipeline snapshot() {
+            return add(VendProtocol.OP_SNAPSHOT, 0);
+        }
+
+        /**
+         * Makes the machine with the given id the target of the following requests, on a server
+         * hosting machines by id
+         */
+        @NonNull
+        public Pipeline selectMachine(int machineId) {
+            return add(VendProtocol.OP_SELECT_MACHINE, machineId);
+        }
+
+        /**
+         * Creates a machine on the server from a saved state
+         */
+        @NonNull
+        public Pipeline putMachineState(int machineId, @NonNull MachineState state) {
+            final int start = requests.position();
+            try {
+                requests.putInt(0).put(VendProtocol.OP_PUT_STATE).putInt(machineId);
+                VendProtocol.putState(requests, state);
+            } catch (BufferOverflowException exc) {
+                requests.position(start);
+                throw new UnsupportedOperationException(
+                        "pipeline is full; call sync() before adding more requests");
+            }
+
+            final int length = requests.position() - start - VendProtocol.HEADER_SIZE;
+            if (length > VendProtocol.MAX_PAYLOAD_SIZE) {
+                requests.position(start);
+                throw new IllegalArgumentException("state of machine " + machineId + " is too large to move");
+            }
+
+            requests.putInt(start, length);
+            ops.add(VendProtocol.OP_PUT_STATE);
+            return this;
+        }
+
+        /**
+         * Removes a machine from the server, returning its state as the result
+         */
+        @NonNull
+        public Pipeline takeMachineState(int machineId) {
+            return add(VendProtocol.OP_TAKE_STATE, machineId);
+        }
+
+        /**
+         * Lists the ids of the machines hosted by the server, as an int[] result
+         */
+        @NonNull
+        public Pipeline getMachineIds() {
+            return add(VendProtocol.OP_MACHINE_IDS, 0);
+        }
+
+        public int size() {
+            return ops.size();
+        }
+
+        /**
+         * Sends every queued request and waits for all responses; the pipeline is empty afterwards
+         * and may be reused
+         *
+         * @return one result per request, in order; see {@link VendProtocol#getResult}
+         * @throws IllegalStateException if the server reported an error for any request
+         */
+        @NonNull
+        public List<Object> sync() {
+            final List<Object> results = syncResults();
+            for (Object result : results) {
+                if (result instanceof IllegalStateException) {
+                    throw (IllegalStateException) result;
+                }
+            }
+
+            return results;
+        }
+
+        /**
+         * Like {@link #sync()}, but a request the server reported an error for gets an
+         * {@link IllegalStateException} as its result instead of failing the whole pipeline, so
+         * the results of the other requests are kept
+         *
+         * @return one result or error per request, in order
+         */
+        @NonNull
+        public List<Object> syncResults() {
+            final List<Object> results = new ArrayList<>(ops.size());
+
+            try {
+                requests.flip();
+                write(requests);
+                for (byte op : ops) {
+                    final ByteBuffer response = readFrame();
+                    response.get();
+                    if (response.get() == VendProtocol.STATUS_OK) {
+                        results.add(VendProtocol.getResult(op, response));
+                    } else {
+                        // keep reading so the stream stays in sync
+                        results.add(new IllegalStateException(
+                                "vend server error: " + VendProtocol.getString(response)));
+                    }
+                }
+            } catch (IOException exc) {
+                throw new UncheckedIOException(exc);
+            } finally {
+                requests.clear();
+                ops.clear();
+            }
+
+            return results;
+        }
+
+        @NonNull
+        private Pipeline add(byte op, int arg) {
+            if (requests.remaining() < VendProtocol.HEADER_SIZE + 5) {
+                throw new UnsupportedOperationException(
+                        "pipeline is full; call sync() before adding more requests");
+            }
+
+            VendProtocol.putRequest(requests, op, arg);
+            ops.add(op);
+            return this;
+        }
+    }
+
+    @NonNull
+    private final SocketChannel channel;
+
+    @NonNull
+    private final ByteBuffer in = ByteBuffer.allocate(VendProtocol.HEADER_SIZE + VendProtocol.MAX_PAYLOAD_SIZE);
+
+    @NonNull
+    private final Pipeline single = new Pipeline();
+
+    private VendClient(@NonNull SocketChannel channel) {
+        this.channel = channel;
+        this.in.flip();
+    }
+
+    /**
+     * Connects to a server
+     *
+     * @param address address of the {@link VendServer}
+     * @return a connected client
+     * @throws IOException if the connection fails
+     */
+    @NonNull
+    public static VendClient connect(@NonNull InetSocketAddress address) throws IOException {
+        final SocketChannel channel = SocketChannel.open(address);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        return new VendClient(channel);
+    }
+
+    /**
+     * @return an empty pipeline for batching requests
+     */
+    @NonNull
+    public Pipeline pipeline() {
+        return new Pipeline();
+    }
+
+    @Override
+    public boolean insertCoin(int usc) {
+        return (Boolean) single.insertCoin(usc).sync().get(0);
+    }
+
+    @NonNull
+    @Override
+    public String updateAndGetCurrentMessageForDisplay() {
+        return (String) single.updateAndGetCurrentMessageForDisplay().sync().get(0);
+    }
+
+    @Override
+    public int getAcceptedUsc() {
+        return (Integer) single.getAcceptedUsc().sync().get(0);
+    }
+
+    @Override
+    public int getUscInReturn() {
+        return (Integer) single.getUscInReturn().sync().get(0);
+    }
+
+    @Override
+    public boolean purchaseProduct(int productIndex) {
+        return (Boolean) single.purchaseProduct(productIndex).sync().get(0);
+    }
+
+    @Override
+    public int getPriceInUsc(int productIndex) {
+        return (Integer) single.getPriceInUsc(productIndex).sync().get(0);
+    }
+
+    @Override
+    public void returnCoins() {
+        single.returnCoins().sync();
+    }
+
+    @Override
+    public void collectCoins() {
+        single.collectCoins().sync();
+    }
+
+    @SuppressWarnings("unchecked")
+    @NonNull
+    @Override
+    public List<Product> getProducts() {
+        return (List<Product>) single.getProducts().sync().get(0);
+    }
+
+    @NonNull
+    @Override
+    public MachineSnapshot snapshot() {
+        return (MachineSnapshot) single.snapshot().sync().get(0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+
+    private void write(@NonNull ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            this.channel.write(buffer);
+        }
+    }
+
+    /**
+     * @return the payload of the next frame; valid until the next call
+     */
+    @NonNull
+    private ByteBuffer readFrame() throws IOException {
+        fill(VendProtocol.HEADER_SIZE);
+        final int length = this.in.getInt(this.in.position());
+        if (length < 2 || length > VendProtocol.MAX_PAYLOAD_SIZE) {
+            throw new IOException("corrupt response frame of " + length + " bytes");
+        }
+
+        fill(VendProtocol.HEADER_SIZE + length);
+        this.in.position(this.in.position() + VendProtocol.HEADER_SIZE);
+        final ByteBuffer payload = this.in.slice();
+        payload.limit(length);
+        this.in.position(this.in.position() + length);
+        return payload;
+    }
+
+    /**
+     * Reads until at least the given number of bytes is buffered; the buffer stays in read mode
+     */
+    private void fill(int bytes) throws IOException {
+        if (this.in.remaining() >= bytes) {
+            return;
+        }
+
+        this.in.compact();
+        while (this.in.position() < bytes) {
+            if (this.channel.read(this.in) < 0) {
+                throw new EOFException("vend server closed the connection");
+            }
+        }
+        this.in.flip();
+    }
+}
@@ -0,0 +1,339 @@
+package com.sofia.testvendingmachine.remote;
+
+import androidx.annotation.NonNull;
+
+import com.sofia.testvendingmachine.models.Lot;
+import com.sofia.testvendingmachine.models.MachineSnapshot;
+import com.sofia.testvendingmachine.models.MachineState;
+import com.sofia.testvendingmachine.models.PricingRule;
+import com.sofia.testvendingmachine.models.Product;
+import com.sofia.testvendingmachine.models.Stock;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Binary protocol used by {@link VendServer} and {@link VendClient} to drive an
+ * {@link com.sofia.testvendingmachine.services.IVendService} remotely.
+ * <p>
+ * Every message is a frame of a 4 byte big-endian payload length followed by the payload.
+ * <ul>
+ * <li>request payload: op code (1 byte), then a 4 byte argument for ops that take one, then the
+ * machine state for {@link #OP_PUT_STATE}</li>
+ * <li>response payload: op code (1 byte), status (1 byte), then the result of the op, or a
+ * message when the status is {@link #STATUS_ERROR}</li>
+ * </ul>
+ * Clients may pipeline any number of requests; responses come back in request order.
+ * <p>
+ * A server hosting several machines serves the machine picked by the last
+ * {@link #OP_SELECT_MACHINE} on the connection.
+ */
+public final class VendProtocol {
+    public static final byte OP_INSERT_COIN = 1;
+    public static final byte OP_PURCHASE_PRODUCT = 2;
+    public static final byte OP_RETURN_COINS = 3;
+    public static final byte OP_COLLECT_COINS = 4;
+    public static final byte OP_DISPLAY = 5;
+    public static final byte OP_ACCEPTED_USC = 6;
+    public static final byte OP_USC_IN_RETURN = 7;
+    public static final byte OP_PRICE = 8;
+    public static final byte OP_PRODUCTS = 9;
+
+    /**
+     * makes the machine with the given id the target of the following requests on the connection;
+     * only servers hosting several machines know any ids
+     */
+    public static final byte OP_SELECT_MACHINE = 10;
+
+    /**
+     * creates a machine from the {@link MachineState} following the id argument
+     */
+    public static final byte OP_PUT_STATE = 11;
+
+    /**
+     * removes a machine and returns its {@link MachineState}
+     */
+    public static final byte OP_TAKE_STATE = 12;
+
+    /**
+     * lists the ids of every hosted machine
+     */
+    public static final byte OP_MACHINE_IDS = 13;
+
+    /**
+     * reads a {@link MachineSnapshot} of the machine
+     */
+    public static final byte OP_SNAPSHOT = 14;
+
+    public static final byte STATUS_OK = 0;
+    public static final byte STATUS_ERROR = 1;
+
+    /**
+     * size of the length prefix of every frame
+     */
+    public static final int HEADER_SIZE = 4;
+
+    /**
+     * largest payload either side accepts; anything bigger is treated as a corrupt stream
+     */
+    public static final int MAX_PAYLOAD_SIZE = 64 * 1024;
+
+    /**
+     * longest string {@link #putString(ByteBuffer, String)} can write, in UTF-8 bytes
+     */
+    public static final int MAX_STRING_SIZE = 0xFFFF;
+
+    private VendProtocol() {
+        // constants and helpers only
+    }
+
+    /**
+     * @param op op code
+     * @return true if the op code is known and carries a 4 byte argument
+     */
+    public static boolean hasArgument(byte op) {
+        return op == OP_INSERT_COIN || op == OP_PURCHASE_PRODUCT || op == OP_PRICE
+                || op == OP_SELECT_MACHINE || op == OP_PUT_STATE || op == OP_TAKE_STATE;
+    }
+
+    /**
+     * @param op op code
+     * @return true if the op code is known
+     */
+    public static boolean isKnownOp(byte op) {
+        return op >= OP_INSERT_COIN && op <= OP_SNAPSHOT;
+    }
+
+    /**
+     * Writes a request frame
+     *
+     * @param out buffer with enough room for the frame
+     * @param op  op code
+     * @param arg argument; ignored for ops without one
+     */
+    public static void putRequest(@NonNull ByteBuffer out, byte op, int arg) {
+        if (hasArgument(op)) {
+            out.putInt(5).put(op).putInt(arg);
+        } else {
+            out.putInt(1).put(op);
+        }
+    }
+
+    /**
+     * Writes a string as a 2 byte length followed by its UTF-8 bytes
+     *
+     * @throws IllegalArgumentException if the string is longer than {@link #MAX_STRING_SIZE} bytes
+     */
+    public static void putString(@NonNull ByteBuffer out, @NonNull String value) {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_STRING_SIZE) {
+            throw new IllegalArgumentException("string of " + bytes.length + " bytes is too long to send");
+        }
+
+        out.putShort((short) bytes.length).put(bytes);
+    }
+
+    /**
+     * Reads a string written by {@link #putString(ByteBuffer, String)}
+     */
+    @NonNull
+    public static String getString(@NonNull ByteBuffer in) {
+        final byte[] bytes = new byte[in.getShort() & 0xFFFF];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes a product catalog as a 2 byte count followed by name and cost of each product
+     */
+    public static void putProducts(@NonNull ByteBuffer out, @NonNull List<Product> products) {
+        out.putShort((short) products.size());
+        for (Product product : products) {
+            putString(out, product.getName());
+            out.putInt(product.getCostInUsc());
+        }
+    }
+
+    /**
+     * Reads a catalog written by {@link #putProducts(ByteBuffer, List)}
+     */
+    @NonNull
+    public static List<Product> getProducts(@NonNull ByteBuffer in) {
+        final int count = in.getShort() & 0xFFFF;
+        final List<Product> products = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            products.add(new Product(getString(in), in.getInt()));
+        }
+
+        return products;
+    }
+
+    /**
+     * Writes the full state of a machine: stock with its lots, pricing rules, balances, display and
+     * snapshot version
+     */
+    public static void putState(@NonNull ByteBuffer out, @NonNull MachineState state) {
+        out.putShort((short) state.getStock().size());
+        for (Stock stock : state.getStock()) {
+            putString(out, stock.getProduct().getName());
+            out.putInt(stock.getProduct().getCostInUsc());
+
+            final List<Lot> lots = stock.getLots();
+            out.putInt(lots.size());
+            for (Lot lot : lots) {
+                out.putInt(lot.getQuantity()).putLong(lot.getExpiresAtMillis());
+            }
+        }
+
+        out.putShort((short) state.getPricingRules().size());
+        for (PricingRule rule : state.getPricingRules()) {
+            out.putShort((short) rule.getStartMinuteOfDay())
+                    .putShort((short) rule.getEndMinuteOfDay())
+                    .put((byte) rule.getAdjustment().ordinal())
+                    .putInt(rule.getAmount());
+
+            final int[] slots = rule.getSlots();
+            out.putShort((short) slots.length);
+            for (int slot : slots) {
+                out.putInt(slot);
+            }
+        }
+
+        out.putInt(state.getCurrencyInUsc())
+                .putInt(state.getReturnInUsc())
+                .putInt(state.getChangeInUsc())
+                .putLong(state.getSnapshotVersion());
+        putString(out, state.getLastMessage());
+    }
+
+    /**
+     * Reads a state written by {@link #putState(ByteBuffer, MachineState)}
+     */
+    @NonNull
+    public static MachineState getState(@NonNull ByteBuffer in) {
+        final int stockCount = in.getShort() & 0xFFFF;
+        final List<Stock> stock = new ArrayList<>(stockCount);
+        for (int i = 0; i < stockCount; i++) {
+            final Product product = new Product(getString(in), in.getInt());
+
+            final int lotCount = in.getInt();
+            final List<Lot> lots = new ArrayList<>(lotCount);
+            for (int l = 0; l < lotCount; l++) {
+                lots.add(new Lot(in.getInt(), in.getLong()));
+            }
+            stock.add(new Stock(product, lots));
+        }
+
+        final int ruleCount = in.getShort() & 0xFFFF;
+        final List<PricingRule> rules = new ArrayList<>(ruleCount);
+        for (int i = 0; i < ruleCount; i++) {
+            final int start = in.getShort();
+            final int end = in.getShort();
+            final PricingRule.Adjustment adjustment = PricingRule.Adjustment.values()[in.get()];
+            final int amount = in.getInt();
+
+            final int[] slots = new int[in.getShort() & 0xFFFF];
+            for (int s = 0; s < slots.length; s++) {
+                slots[s] = in.getInt();
+            }
+            rules.add(new PricingRule(start, end, slots, adjustment, amount));
+        }
+
+        final int currencyInUsc = in.getInt();
+        final int returnInUsc = in.getInt();
+        final int changeInUsc = in.getInt();
+        final long snapshotVersion = in.getLong();
+        return new MachineState(
+                stock, rules, currencyInUsc, returnInUsc, changeInUsc, getString(in), snapshotVersion);
+    }
+
+    /**
+     * Writes a snapshot: version, balances, stock count of every slot and display message
+     */
+    public static void putSnapshot(@NonNull ByteBuffer out, @NonNull MachineSnapshot snapshot) {
+        out.putLong(snapshot.getVersion())
+                .putInt(snapshot.getAcceptedUsc())
+                .putInt(snapshot.getUscInReturn())
+                .putShort((short) snapshot.getSlotCount());
+        for (int i = 0; i < snapshot.getSlotCount(); i++) {
+            out.putInt(snapshot.getAvailable(i));
+        }
+        putString(out, snapshot.getDisplayMessage());
+    }
+
+    /**
+     * Reads a snapshot written by {@link #putSnapshot(ByteBuffer, MachineSnapshot)}
+     */
+    @NonNull
+    public static MachineSnapshot getSnapshot(@NonNull ByteBuffer in) {
+        final long version = in.getLong();
+        final int acceptedUsc = in.getInt();
+        final int uscInReturn = in.getInt();
+        final int[] available = new int[in.getShort() & 0xFFFF];
+        for (int i = 0; i < available.length; i++) {
+            available[i] = in.getInt();
+        }
+
+        return new MachineSnapshot(version, acceptedUsc, uscInReturn, available, getString(in));
+    }
+
+    /**
+     * Writes a list of machine ids as a 4 byte count followed by the ids
+     */
+    public static void putIds(@NonNull ByteBuffer out, @NonNull Collection<Integer> ids) {
+        out.putInt(ids.size());
+        for (int id : ids) {
+            out.putInt(id);
+        }
+    }
+
+    /**
+     * Reads ids written by {@link #putIds(ByteBuffer, Collection)}
+     */
+    @NonNull
+    public static int[] getIds(@NonNull ByteBuffer in) {
+        final int[] ids = new int[in.getInt()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = in.getInt();
+        }
+
+        return ids;
+    }
+
+    /**
+     * Decodes the result of a response payload, positioned just after the op code and status
+     *
+     * @param op  op code the response is for
+     * @param in  payload
+     * @return Boolean, Integer, String, List of Product, MachineState, int[] or MachineSnapshot
+     * depending on the op; null for ops without a result
+     * @throws BufferUnderflowException if the payload is truncated
+     */
+    public static Object getResult(byte op, @NonNull ByteBuffer in) {
+        switch (op) {
+            case OP_INSERT_COIN:
+            case OP_PURCHASE_PRODUCT:
+                return in.get() != 0;
+            case OP_ACCEPTED_USC:
+            case OP_USC_IN_RETURN:
+            case OP_PRICE:
+                return in.getInt();
+            case OP_DISPLAY:
+                return getString(in);
+            case OP_PRODUCTS:
+                return getProducts(in);
+            case OP_TAKE_STATE:
+                return getState(in);
+            case OP_MACHINE_IDS:
+                return getIds(in);
+            case OP_SNAPSHOT:
+                return getSnapshot(in);
+            default:
+                return null;
+        }
+    }
+}
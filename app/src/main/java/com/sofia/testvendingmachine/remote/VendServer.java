@@ -0,0 +1,439 @@
+package com.sofia.testvendingmachine.remote;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.sofia.testvendingmachine.models.VendingMachine;
+import com.sofia.testvendingmachine.services.IVendService;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Non-blocking server that lets a remote gateway drive an {@link IVendService} using the
+ * {@link VendProtocol}.
+ * <p>
+ * A single selector thread serves every connection and is the only thread calling the service,
+ * so the (not thread-safe) machine sees one call at a time. All complete requests received in one
+ * read are executed back to back and their responses are written with a single socket write.
+ * Once started, the service must not be used by any other thread.
+ * <p>
+ * A server may also host many machines by id, e.g. as one partition of a fleet; clients pick a
+ * machine with {@link VendProtocol#OP_SELECT_MACHINE}, and machines are moved between servers as
+ * {@link com.sofia.testvendingmachine.models.MachineState}s.
+ */
+public final class VendServer implements Closeable {
+    private static final int INPUT_BUFFER_SIZE = 2 * (VendProtocol.HEADER_SIZE + VendProtocol.MAX_PAYLOAD_SIZE);
+    private static final int OUTPUT_BUFFER_SIZE = 4 * (VendProtocol.HEADER_SIZE + VendProtocol.MAX_PAYLOAD_SIZE);
+
+    /**
+     * longest error message sent, in chars; longer ones are cut so the error frame always fits
+     */
+    private static final int MAX_ERROR_MESSAGE_LENGTH = 1024;
+
+    /**
+     * Per connection buffers; both are kept in write mode between events
+     */
+    private static final class Connection {
+        @NonNull
+        final SocketChannel channel;
+
+        @NonNull
+        final ByteBuffer in = ByteBuffer.allocateDirect(INPUT_BUFFER_SIZE);
+
+        @NonNull
+        final ByteBuffer out = ByteBuffer.allocateDirect(OUTPUT_BUFFER_SIZE);
+
+        /**
+         * target of the requests on this connection
+         */
+        @Nullable
+        IVendService machine;
+
+        Connection(@NonNull SocketChannel channel, @Nullable IVendService machine) {
+            this.channel = channel;
+            this.machine = machine;
+        }
+    }
+
+    /**
+     * machine every new connection starts with; null when hosting machines by id only
+     */
+    @Nullable
+    private final IVendService defaultMachine;
+
+    /**
+     * machines hosted by id; only touched by the selector thread once started
+     */
+    @NonNull
+    private final Map<Integer, IVendService> machines;
+
+    @NonNull
+    private final InetSocketAddress bindAddress;
+
+    @Nullable
+    private Selector selector;
+
+    @Nullable
+    private ServerSocketChannel serverChannel;
+
+    @Nullable
+    private Thread thread;
+
+    private volatile boolean running;
+
+    /**
+     * Construct a server instance; call {@link #start()} to begin accepting connections
+     *
+     * @param vendingMachine machine to drive
+     * @param bindAddress    address to listen on; use port 0 for any free port
+     */
+    public VendServer(@NonNull IVendService vendingMachine, @NonNull InetSocketAddress bindAddress) {
+        this.defaultMachine = vendingMachine;
+        this.machines = new HashMap<>();
+        this.bindAddress = bindAddress;
+    }
+
+    /**
+     * Construct a server instance hosting machines by id; call {@link #start()} to begin
+     * accepting connections
+     *
+     * @param machines    machines to host, by id; the server owns the map from now on
+     * @param bindAddress address to listen on; use port 0 for any free port
+     */
+    public VendServer(@NonNull Map<Integer, IVendService> machines, @NonNull InetSocketAddress bindAddress) {
+        this.defaultMachine = null;
+        this.machines = machines;
+        this.bindAddress = bindAddress;
+    }
+
+    /**
+     * Binds the server socket and starts the selector thread
+     *
+     * @throws IOException if the address cannot be bound
+     */
+    public synchronized void start() throws IOException {
+        if (this.thread != null) {
+            throw new UnsupportedOperationException("server was already started");
+        }
+
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        this.serverChannel.bind(this.bindAddress);
+        this.serverChannel.configureBlocking(false);
+        this.serverChannel.register(this.selector, SelectionKey.OP_ACCEPT);
+
+        this.running = true;
+        this.thread = new Thread(this::run, "vend-server");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * @return the port the server listens on, useful when bound to port 0
+     */
+    public int getLocalPort() {
+        if (this.serverChannel == null) {
+            throw new UnsupportedOperationException("you must call start() before asking for the port");
+        }
+
+        return this.serverChannel.socket().getLocalPort();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (this.thread == null) {
+            return;
+        }
+
+        this.running = false;
+        this.selector.wakeup();
+        try {
+            this.thread.join();
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+        }
+
+        for (SelectionKey key : this.selector.keys()) {
+            key.channel().close();
+        }
+
+        this.selector.close();
+    }
+
+    private void run() {
+        while (this.running) {
+            try {
+                this.selector.select();
+            } catch (IOException exc) {
+                // selector is broken; nothing left to serve
+                return;
+            }
+
+            final Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                final SelectionKey key = keys.next();
+                keys.remove();
+
+                try {
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else {
+                        serve(key);
+                    }
+                } catch (IOException exc) {
+                    // drop only the failing connection
+                    closeQuietly(key);
+                }
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        final SocketChannel channel = this.serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        channel.register(this.selector, SelectionKey.OP_READ, new Connection(channel, this.defaultMachine));
+    }
+
+    private void serve(@NonNull SelectionKey key) throws IOException {
+        final Connection connection = (Connection) key.attachment();
+
+        if (key.isReadable() && connection.channel.read(connection.in) < 0) {
+            closeQuietly(key);
+            return;
+        }
+
+        // execute and flush until either no complete request is left or the peer stops reading
+        boolean pending;
+        do {
+            if (!execute(connection)) {
+                // corrupt stream; there is no way to find the next frame
+                closeQuietly(key);
+                return;
+            }
+
+            connection.out.flip();
+            connection.channel.write(connection.out);
+            pending = connection.out.hasRemaining();
+            connection.out.compact();
+        } while (!pending && hasCompleteFrame(connection.in));
+
+        int ops = 0;
+        if (connection.in.hasRemaining()) {
+            ops |= SelectionKey.OP_READ;
+        }
+        if (pending) {
+            ops |= SelectionKey.OP_WRITE;
+        }
+        key.interestOps(ops);
+    }
+
+    /**
+     * Executes every complete request in the input buffer, as long as the output buffer has room
+     * for the response
+     *
+     * @return false if the peer sent a frame that violates the protocol
+     */
+    private boolean execute(@NonNull Connection connection) {
+        final ByteBuffer in = connection.in;
+        final ByteBuffer out = connection.out;
+
+        in.flip();
+        try {
+            while (in.remaining() >= VendProtocol.HEADER_SIZE
+                    && out.remaining() >= VendProtocol.HEADER_SIZE + VendProtocol.MAX_PAYLOAD_SIZE) {
+                final int length = in.getInt(in.position());
+                if (length < 1 || length > VendProtocol.MAX_PAYLOAD_SIZE) {
+                    return false;
+                }
+
+                if (in.remaining() < VendProtocol.HEADER_SIZE + length) {
+                    break;
+                }
+
+                // limit the buffer to this frame while responding
+                final int limit = in.limit();
+                in.position(in.position() + VendProtocol.HEADER_SIZE);
+                final int end = in.position() + length;
+                in.limit(end);
+
+                final byte op = in.get();
+                final boolean complete = !VendProtocol.hasArgument(op) || length >= 5;
+                final int arg = VendProtocol.hasArgument(op) && complete ? in.getInt() : 0;
+                respond(connection, op, arg, complete, in);
+
+                in.limit(limit);
+                in.position(end);
+            }
+        } finally {
+            in.compact();
+        }
+
+        return true;
+    }
+
+    private void respond(@NonNull Connection connection, byte op, int arg, boolean complete, @NonNull ByteBuffer in) {
+        final ByteBuffer out = connection.out;
+        final int start = out.position();
+        out.putInt(0).put(op).put(VendProtocol.STATUS_OK);
+
+        try {
+            if (!VendProtocol.isKnownOp(op) || !complete) {
+                throw new IllegalArgumentException("malformed request for op " + op);
+            }
+
+            switch (op) {
+                case VendProtocol.OP_SELECT_MACHINE:
+                    connection.machine = this.machines.get(arg);
+                    if (connection.machine == null) {
+                        throw new IllegalArgumentException("no machine " + arg);
+                    }
+                    break;
+                case VendProtocol.OP_PUT_STATE:
+                    if (this.machines.containsKey(arg)) {
+                        throw new IllegalArgumentException("machine " + arg + " already exists");
+                    }
+                    this.machines.put(arg, new VendingMachine(VendProtocol.getState(in)));
+                    break;
+                case VendProtocol.OP_TAKE_STATE:
+                    takeState(out, start, arg);
+                    break;
+                case VendProtocol.OP_MACHINE_IDS:
+                    VendProtocol.putIds(out, this.machines.keySet());
+                    break;
+                default:
+                    dispatch(selected(connection), out, op, arg);
+                    break;
+            }
+
+            // clients treat bigger frames as a corrupt stream and cannot recover
+            if (out.position() - start - VendProtocol.HEADER_SIZE > VendProtocol.MAX_PAYLOAD_SIZE) {
+                throw new BufferOverflowException();
+            }
+        } catch (BufferOverflowException exc) {
+            error(out, start, "response to op " + op + " is too large");
+        } catch (RuntimeException exc) {
+            // report the failure to the caller instead of dropping the connection
+            error(out, start, String.valueOf(exc.getMessage()));
+        }
+
+        out.putInt(start, out.position() - start - VendProtocol.HEADER_SIZE);
+    }
+
+    /**
+     * Replaces the result of the response starting at the given position with an error message
+     */
+    private static void error(@NonNull ByteBuffer out, int start, @NonNull String message) {
+        out.position(start + VendProtocol.HEADER_SIZE + 1);
+        out.put(VendProtocol.STATUS_ERROR);
+        VendProtocol.putString(out, message.length() > MAX_ERROR_MESSAGE_LENGTH
+                ? message.substring(0, MAX_ERROR_MESSAGE_LENGTH) + "..."
+                : message);
+    }
+
+    private static void dispatch(@NonNull IVendService machine, @NonNull ByteBuffer out, byte op, int arg) {
+        switch (op) {
+            case VendProtocol.OP_INSERT_COIN:
+                out.put((byte) (machine.insertCoin(arg) ? 1 : 0));
+                break;
+            case VendProtocol.OP_PURCHASE_PRODUCT:
+                out.put((byte) (machine.purchaseProduct(arg) ? 1 : 0));
+                break;
+            case VendProtocol.OP_RETURN_COINS:
+                machine.returnCoins();
+                break;
+            case VendProtocol.OP_COLLECT_COINS:
+                machine.collectCoins();
+                break;
+            case VendProtocol.OP_DISPLAY:
+                VendProtocol.putString(out, machine.updateAndGetCurrentMessageForDisplay());
+                break;
+            case VendProtocol.OP_ACCEPTED_USC:
+                out.putInt(machine.getAcceptedUsc());
+                break;
+            case VendProtocol.OP_USC_IN_RETURN:
+                out.putInt(machine.getUscInReturn());
+                break;
+            case VendProtocol.OP_PRICE:
+                out.putInt(machine.getPriceInUsc(arg));
+                break;
+            case VendProtocol.OP_PRODUCTS:
+                VendProtocol.putProducts(out, machine.getProducts());
+                break;
+            case VendProtocol.OP_SNAPSHOT:
+                VendProtocol.putSnapshot(out, machine.snapshot());
+                break;
+        }
+    }
+
+    @NonNull
+    private static IVendService selected(@NonNull Connection connection) {
+        if (connection.machine == null) {
+            throw new UnsupportedOperationException("no machine selected");
+        }
+
+        return connection.machine;
+    }
+
+    /**
+     * Writes the state of a machine and stops hosting it; the machine is only removed once its
+     * state fit in the response
+     */
+    private void takeState(@NonNull ByteBuffer out, int start, int machineId) {
+        final IVendService machine = this.machines.get(machineId);
+        if (!(machine instanceof VendingMachine)) {
+            throw new IllegalArgumentException("no movable machine " + machineId);
+        }
+
+        VendProtocol.putState(out, ((VendingMachine) machine).saveState());
+        if (out.position() - start - VendProtocol.HEADER_SIZE > VendProtocol.MAX_PAYLOAD_SIZE) {
+            throw new IllegalArgumentException("state of machine " + machineId + " is too large to move");
+        }
+
+        this.machines.remove(machineId);
+
+        // connections still pointing at the machine must not change it after it moved
+        for (SelectionKey key : this.selector.keys()) {
+            final Connection other = (Connection) key.attachment();
+            if (other != null && other.machine == machine) {
+                other.machine = null;
+            }
+        }
+    }
+
+    private static boolean hasCompleteFrame(@NonNull ByteBuffer in) {
+        // in is in write mode: the data is [0, position)
+        if (in.position() < VendProtocol.HEADER_SIZE) {
+            return false;
+        }
+
+        final int length = in.getInt(0);
+        return length < 1 || length > VendProtocol.MAX_PAYLOAD_SIZE
+                || in.position() >= VendProtocol.HEADER_SIZE + length;
+    }
+
+    private static void closeQuietly(@NonNull SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException exc) {
+            // already closing; nothing else to do
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.sofia.testvendingmachine.services;
 
+import com.sofia.testvendingmachine.models.MachineSnapshot;
 import com.sofia.testvendingmachine.models.Product;
 import androidx.annotation.NonNull;
 import java.util.List;
@@ -65,6 +66,15 @@ public interface IVendService {
      */
     boolean purchaseProduct(int productIndex);
 
+    /**
+     * Gets the price a product sells for right now, after any pricing rules
+     * such as happy-hour discounts or surcharges
+     *
+     * @param productIndex the index of the requested product
+     * @return the effective price, as cents (100th of a USD)
+     */
+    int getPriceInUsc(int productIndex);
+
     /**
      * User may request coins to return all available currency in the machine
      * not used for a purchase yet; available coins go to the return, aka
@@ -86,4 +96,18 @@ public interface IVendService {
      */
     @NonNull
     List<Product> getProducts();
+
+    /**
+     * Consistent view of balances, stock and the display message, for
+     * monitoring.
+     * <p>
+     * Unlike separate calls to {@link #getAcceptedUsc()},
+     * {@link #getUscInReturn()} and friends, every value comes from the same
+     * moment; reading it does not change the display and never waits for a
+     * purchase in progress.
+     *
+     * @return the latest published snapshot
+     */
+    @NonNull
+    MachineSnapshot snapshot();
 }
@@ -0,0 +1,85 @@
+package com.sofia.testvendingmachine.trace;
+
+import androidx.annotation.NonNull;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Outcome of replaying a trace with {@link TraceReplayer}
+ */
+public final class ReplayReport {
+    private final int calls;
+
+    private final int mismatches;
+
+    @NonNull
+    private final List<String> mismatchDetails;
+
+    private final long elapsedNanos;
+
+    private final boolean truncated;
+
+    ReplayReport(int calls,
+                 int mismatches,
+                 @NonNull List<String> mismatchDetails,
+                 long elapsedNanos,
+                 boolean truncated) {
+        this.calls = calls;
+        this.mismatches = mismatches;
+        this.mismatchDetails = Collections.unmodifiableList(mismatchDetails);
+        this.elapsedNanos = elapsedNanos;
+        this.truncated = truncated;
+    }
+
+    /**
+     * @return number of calls replayed
+     */
+    public int getCalls() {
+        return calls;
+    }
+
+    /**
+     * @return number of calls whose result, or whether they threw, differed from the recording
+     */
+    public int getMismatches() {
+        return mismatches;
+    }
+
+    /**
+     * @return a description of the first mismatches, in trace order
+     */
+    @NonNull
+    public List<String> getMismatchDetails() {
+        return mismatchDetails;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * @return true if the trace ended part way through a record, e.g. because the recording
+     * process died; the calls up to the last complete record were replayed
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    public double getCallsPerSecond() {
+        return elapsedNanos == 0 ? 0 : calls * 1e9 / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                Locale.US,
+                "%d calls in %.1f ms (%.0f calls/s), %d mismatches%s",
+                calls,
+                elapsedNanos / 1e6,
+                getCallsPerSecond(),
+                mismatches,
+                truncated ? ", trace truncated" : "");
+    }
+}
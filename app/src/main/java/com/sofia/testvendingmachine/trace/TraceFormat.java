@@ -0,0 +1,73 @@
+package com.sofia.testvendingmachine.trace;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Binary layout of a trace file written by {@link TraceRecorder} and read by
+ * {@link TraceReplayer}.
+ * <p>
+ * A trace starts with a header of {@link #MAGIC} (4 bytes), {@link #VERSION} (1 byte) and the
+ * wall-clock start as epoch milliseconds (8 bytes). Every call follows as one record:
+ * <ul>
+ * <li>microseconds since the previous record, as an unsigned varint</li>
+ * <li>the {@link com.sofia.testvendingmachine.remote.VendProtocol} op code (1 byte), with
+ * {@link #FLAG_THREW} set if the call threw, or {@link #FLAG_UNRECORDED} if its result was too large
+ * to record</li>
+ * <li>the 4 byte argument, for ops that take one</li>
+ * <li>the result, encoded as in a {@link com.sofia.testvendingmachine.remote.VendProtocol}
+ * response, unless the call threw or the result was not recorded</li>
+ * </ul>
+ */
+final class TraceFormat {
+    /**
+     * "VTRC"
+     */
+    static final int MAGIC = 0x56545243;
+
+    /**
+     * version 2 added {@link #FLAG_UNRECORDED}; version 1 traces are read unchanged
+     */
+    static final byte VERSION = 2;
+
+    static final byte MIN_VERSION = 1;
+
+    static final int HEADER_SIZE = 4 + 1 + 8;
+
+    /**
+     * set on the op code of a call that threw instead of returning
+     */
+    static final byte FLAG_THREW = (byte) 0x80;
+
+    /**
+     * set on the op code of a call that returned a result too large for a record; replaying skips
+     * the comparison of its result
+     */
+    static final byte FLAG_UNRECORDED = 0x40;
+
+    private TraceFormat() {
+        // constants and helpers only
+    }
+
+    static void putVarLong(@NonNull ByteBuffer out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    static long getVarLong(@NonNull ByteBuffer in) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+
+        return value;
+    }
+}
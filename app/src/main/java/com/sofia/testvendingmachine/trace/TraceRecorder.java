@@ -0,0 +1,299 @@
+package com.sofia.testvendingmachine.trace;
+
+import androidx.annotation.NonNull;
+
+import com.sofia.testvendingmachine.models.MachineSnapshot;
+import com.sofia.testvendingmachine.models.Product;
+import com.sofia.testvendingmachine.remote.VendProtocol;
+import com.sofia.testvendingmachine.services.IVendService;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Records every call made to an {@link IVendService}, with its result and a compact timestamp,
+ * to a binary trace that {@link TraceReplayer} can feed into another implementation.
+ * <p>
+ * Wrap the machine with the recorder and use the recorder in its place. Like the machines it
+ * wraps, a recorder is not thread-safe.
+ * <p>
+ * A result too large for one record, e.g. a huge product catalog, is recorded as not recorded;
+ * the caller still gets it, and replaying only checks that the call did not throw.
+ */
+public final class TraceRecorder implements IVendService, Closeable, Flushable {
+    @NonNull
+    private final IVendService vendingMachine;
+
+    @NonNull
+    private final OutputStream out;
+
+    /**
+     * reused for every record
+     */
+    @NonNull
+    private final ByteBuffer record =
+            ByteBuffer.allocate(16 + VendProtocol.HEADER_SIZE + VendProtocol.MAX_PAYLOAD_SIZE);
+
+    private long lastNanos;
+
+    /**
+     * Construct a recorder instance and write the trace header
+     *
+     * @param vendingMachine machine to record
+     * @param out            stream to write the trace to; closed with the recorder
+     * @throws IOException if the header cannot be written
+     */
+    public TraceRecorder(@NonNull IVendService vendingMachine, @NonNull OutputStream out) throws IOException {
+        this.vendingMachine = vendingMachine;
+        this.out = out;
+
+        this.record.putInt(TraceFormat.MAGIC)
+                .put(TraceFormat.VERSION)
+                .putLong(System.currentTimeMillis());
+        this.out.write(this.record.array(), 0, this.record.position());
+        this.record.clear();
+
+        this.lastNanos = System.nanoTime();
+    }
+
+    /**
+     * Records a machine to a trace file
+     *
+     * @param vendingMachine machine to record
+     * @param file           trace file; replaced if it exists
+     * @return the recorder to use in place of the machine
+     * @throws IOException if the file cannot be written
+     */
+    @NonNull
+    public static TraceRecorder open(@NonNull IVendService vendingMachine, @NonNull File file) throws IOException {
+        return new TraceRecorder(vendingMachine, new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+    }
+
+    @Override
+    public boolean insertCoin(int usc) {
+        final int opPosition = begin(VendProtocol.OP_INSERT_COIN, usc);
+        final boolean result;
+        try {
+            result = this.vendingMachine.insertCoin(usc);
+        } catch (RuntimeException exc) {
+            threw(opPosition);
+            throw exc;
+        }
+
+        this.record.put((byte) (result ? 1 : 0));
+        end();
+        return result;
+    }
+
+    @NonNull
+    @Override
+    public String updateAndGetCurrentMessageForDisplay() {
+        final int opPosition = begin(VendProtocol.OP_DISPLAY, 0);
+        final String result;
+        try {
+            result = this.vendingMachine.updateAndGetCurrentMessageForDisplay();
+        } catch (RuntimeException exc) {
+            threw(opPosition);
+            throw exc;
+        }
+
+        final int resultPosition = this.record.position();
+        try {
+            VendProtocol.putString(this.record, result);
+        } catch (BufferOverflowException | IllegalArgumentException exc) {
+            unrecorded(opPosition, resultPosition);
+        }
+        end();
+        return result;
+    }
+
+    @Override
+    public int getAcceptedUsc() {
+        final int opPosition = begin(VendProtocol.OP_ACCEPTED_USC, 0);
+        final int result;
+        try {
+            result = this.vendingMachine.getAcceptedUsc();
+        } catch (RuntimeException exc) {
+            threw(opPosition);
+            throw exc;
+        }
+
+        this.record.putInt(result);
+        end();
+        return result;
+    }
+
+    @Override
+    public int getUscInReturn() {
+        final int opPosition = begin(VendProtocol.OP_USC_IN_RETURN, 0);
+        final int result;
+        try {
+            result = this.vendingMachine.getUscInReturn();
+        } catch (RuntimeException exc) {
+            threw(opPosition);
+            throw exc;
+        }
+
+        this.record.putInt(result);
+        end();
+        return result;
+    }
+
+    @Override
+    public boolean purchaseProduct(int productIndex) {
+        final int opPosition = begin(VendProtocol.OP_PURCHASE_PRODUCT, productIndex);
+        final boolean result;
+        try {
+            result = this.vendingMachine.purchaseProduct(productIndex);
+        } catch (RuntimeException exc) {
+            threw(opPosition);
+            throw exc;
+        }
+
+        this.record.put((byte) (result ? 1 : 0));
+        end();
+        return result;
+    }
+
+    @Override
+    public int getPriceInUsc(int productIndex) {
+        final int opPosition = begin(VendProtocol.OP_PRICE, productIndex);
+        final int result;
+        try {
+            result = this.vendingMachine.getPriceInUsc(productIndex);
+        } catch (RuntimeException exc) {
+            threw(opPosition);
+            throw exc;
+        }
+
+        this.record.putInt(result);
+        end();
+        return result;
+    }
+
+    @Override
+    public void returnCoins() {
+        final int opPosition = begin(VendProtocol.OP_RETURN_COINS, 0);
+        try {
+            this.vendingMachine.returnCoins();
+        } catch (RuntimeException exc) {
+            threw(opPosition);
+            throw exc;
+        }
+
+        end();
+    }
+
+    @Override
+    public void collectCoins() {
+        final int opPosition = begin(VendProtocol.OP_COLLECT_COINS, 0);
+        try {
+            this.vendingMachine.collectCoins();
+        } catch (RuntimeException exc) {
+            threw(opPosition);
+            throw exc;
+        }
+
+        end();
+    }
+
+    @NonNull
+    @Override
+    public List<Product> getProducts() {
+        final int opPosition = begin(VendProtocol.OP_PRODUCTS, 0);
+        final List<Product> result;
+        try {
+            result = this.vendingMachine.getProducts();
+        } catch (RuntimeException exc) {
+            threw(opPosition);
+            throw exc;
+        }
+
+        final int resultPosition = this.record.position();
+        try {
+            VendProtocol.putProducts(this.record, result);
+        } catch (BufferOverflowException | IllegalArgumentException exc) {
+            unrecorded(opPosition, resultPosition);
+        }
+        end();
+        return result;
+    }
+
+    /**
+     * Monitoring read; passed through without recording since it never affects a customer
+     * session
+     */
+    @NonNull
+    @Override
+    public MachineSnapshot snapshot() {
+        return this.vendingMachine.snapshot();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        this.out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.out.close();
+    }
+
+    /**
+     * Starts a record with its timestamp, op and argument
+     *
+     * @return position of the op in the record
+     */
+    private int begin(byte op, int arg) {
+        // advance by whole microseconds only, so the truncated remainders do not add up to drift
+        final long deltaMicros = (System.nanoTime() - this.lastNanos) / 1000;
+        TraceFormat.putVarLong(this.record, deltaMicros);
+        this.lastNanos += deltaMicros * 1000;
+
+        final int opPosition = this.record.position();
+        this.record.put(op);
+        if (VendProtocol.hasArgument(op)) {
+            this.record.putInt(arg);
+        }
+
+        return opPosition;
+    }
+
+    /**
+     * Writes the record of a call that threw; it has no result
+     */
+    private void threw(int opPosition) {
+        this.record.put(opPosition, (byte) (this.record.get(opPosition) | TraceFormat.FLAG_THREW));
+        end();
+    }
+
+    /**
+     * Drops a result too large for the record and flags the record instead
+     */
+    private void unrecorded(int opPosition, int resultPosition) {
+        this.record.position(resultPosition);
+        this.record.put(opPosition, (byte) (this.record.get(opPosition) | TraceFormat.FLAG_UNRECORDED));
+    }
+
+    /**
+     * Writes the finished record
+     */
+    private void end() {
+        try {
+            this.out.write(this.record.array(), 0, this.record.position());
+        } catch (IOException exc) {
+            throw new UncheckedIOException(exc);
+        } finally {
+            this.record.clear();
+        }
+    }
+}
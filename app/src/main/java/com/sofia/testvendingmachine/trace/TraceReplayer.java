@@ -0,0 +1,211 @@
+package com.sofia.testvendingmachine.trace;
+
+import androidx.annotation.NonNull;
+
+import com.sofia.testvendingmachine.remote.VendProtocol;
+import com.sofia.testvendingmachine.services.IVendService;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Feeds a trace written by {@link TraceRecorder} into any {@link IVendService} and checks every
+ * result against the recording.
+ * <p>
+ * The whole trace is decoded from memory, so replaying as fast as possible measures the machine
+ * rather than the disk.
+ */
+public final class TraceReplayer {
+    /**
+     * How fast calls are replayed
+     */
+    public enum Pace {
+        /**
+         * keep the gaps between calls as recorded
+         */
+        ORIGINAL,
+
+        /**
+         * issue every call as soon as the previous one returns
+         */
+        AS_FAST_AS_POSSIBLE
+    }
+
+    /**
+     * most mismatches described in a report; all of them are counted
+     */
+    private static final int MAX_MISMATCH_DETAILS = 100;
+
+    @NonNull
+    private final ByteBuffer trace;
+
+    private final long startedAtMillis;
+
+    /**
+     * Construct a replayer instance
+     *
+     * @param trace the complete trace, from its header on
+     * @throws IllegalArgumentException if the buffer does not hold a trace
+     */
+    public TraceReplayer(@NonNull ByteBuffer trace) {
+        this.trace = trace.duplicate();
+        if (this.trace.remaining() < TraceFormat.HEADER_SIZE
+                || this.trace.getInt() != TraceFormat.MAGIC) {
+            throw new IllegalArgumentException("not a vend trace");
+        }
+
+        final byte version = this.trace.get();
+        if (version < TraceFormat.MIN_VERSION || version > TraceFormat.VERSION) {
+            throw new IllegalArgumentException("unsupported vend trace version " + version);
+        }
+
+        this.startedAtMillis = this.trace.getLong();
+    }
+
+    /**
+     * Loads a trace file
+     *
+     * @param file trace file
+     * @return a replayer for the file
+     * @throws IOException if the file cannot be read
+     */
+    @NonNull
+    public static TraceReplayer open(@NonNull File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            return new TraceReplayer(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * @return wall-clock time the recording started, as epoch milliseconds
+     */
+    public long getStartedAtMillis() {
+        return startedAtMillis;
+    }
+
+    /**
+     * Replays the trace; may be called again, e.g. against another implementation
+     *
+     * @param vendingMachine machine to feed the calls into, normally in the same state the recorded
+     *                       machine started in
+     * @param pace           how fast to replay
+     * @return what was replayed and where the results differed; a trace that ends part way
+     * through a record is replayed up to its last complete record and reported as truncated
+     * @throws IllegalArgumentException if the trace is corrupt
+     */
+    @NonNull
+    public ReplayReport replay(@NonNull IVendService vendingMachine, @NonNull Pace pace) {
+        final ByteBuffer in = this.trace.duplicate();
+        final List<String> details = new ArrayList<>();
+        int calls = 0;
+        int mismatches = 0;
+
+        final long start = System.nanoTime();
+        long offsetNanos = 0;
+        boolean truncated = false;
+        while (in.hasRemaining()) {
+            final byte op;
+            final boolean threw;
+            final boolean unrecorded;
+            final int arg;
+            final Object expected;
+            try {
+                offsetNanos += TimeUnit.MICROSECONDS.toNanos(TraceFormat.getVarLong(in));
+                final byte flaggedOp = in.get();
+                op = (byte) (flaggedOp & ~(TraceFormat.FLAG_THREW | TraceFormat.FLAG_UNRECORDED));
+                threw = (flaggedOp & TraceFormat.FLAG_THREW) != 0;
+                unrecorded = (flaggedOp & TraceFormat.FLAG_UNRECORDED) != 0;
+                if (op < VendProtocol.OP_INSERT_COIN || op > VendProtocol.OP_PRODUCTS) {
+                    throw new IllegalStateException("unknown op " + op);
+                }
+                arg = VendProtocol.hasArgument(op) ? in.getInt() : 0;
+                expected = threw || unrecorded ? null : VendProtocol.getResult(op, in);
+            } catch (BufferUnderflowException exc) {
+                // the recording stopped part way through this record, e.g. the process was killed
+                truncated = true;
+                break;
+            } catch (RuntimeException exc) {
+                // unknown ops, malformed products, ...
+                throw new IllegalArgumentException("corrupt vend trace after " + calls + " calls", exc);
+            }
+
+            if (pace == Pace.ORIGINAL) {
+                waitUntil(start + offsetNanos);
+            }
+
+            Object actual = null;
+            boolean actualThrew = false;
+            try {
+                actual = call(vendingMachine, op, arg);
+            } catch (RuntimeException exc) {
+                actualThrew = true;
+            }
+
+            calls++;
+            if (threw != actualThrew
+                    || (!unrecorded && (expected == null ? actual != null : !expected.equals(actual)))) {
+                mismatches++;
+                if (details.size() < MAX_MISMATCH_DETAILS) {
+                    details.add(String.format(
+                            Locale.US,
+                            "call %d (op %d, arg %d): recorded %s, got %s",
+                            calls,
+                            op,
+                            arg,
+                            threw ? "exception" : unrecorded ? "an unrecorded result" : expected,
+                            actualThrew ? "exception" : actual));
+                }
+            }
+        }
+
+        return new ReplayReport(calls, mismatches, details, System.nanoTime() - start, truncated);
+    }
+
+    private static Object call(@NonNull IVendService vendingMachine, byte op, int arg) {
+        switch (op) {
+            case VendProtocol.OP_INSERT_COIN:
+                return vendingMachine.insertCoin(arg);
+            case VendProtocol.OP_PURCHASE_PRODUCT:
+                return vendingMachine.purchaseProduct(arg);
+            case VendProtocol.OP_RETURN_COINS:
+                vendingMachine.returnCoins();
+                return null;
+            case VendProtocol.OP_COLLECT_COINS:
+                vendingMachine.collectCoins();
+                return null;
+            case VendProtocol.OP_DISPLAY:
+                return vendingMachine.updateAndGetCurrentMessageForDisplay();
+            case VendProtocol.OP_ACCEPTED_USC:
+                return vendingMachine.getAcceptedUsc();
+            case VendProtocol.OP_USC_IN_RETURN:
+                return vendingMachine.getUscInReturn();
+            case VendProtocol.OP_PRICE:
+                return vendingMachine.getPriceInUsc(arg);
+            case VendProtocol.OP_PRODUCTS:
+                return vendingMachine.getProducts();
+            default:
+                throw new IllegalStateException("unknown op " + op + " in vend trace");
+        }
+    }
+
+    private static void waitUntil(long deadlineNanos) {
+        long remaining;
+        while ((remaining = deadlineNanos - System.nanoTime()) > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(remaining);
+            } catch (InterruptedException exc) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package com.sofia.testvendingmachine.fleet;
+
+import com.sofia.testvendingmachine.models.MachineSnapshot;
+import com.sofia.testvendingmachine.models.MachineState;
+import com.sofia.testvendingmachine.models.PricingRule;
+import com.sofia.testvendingmachine.models.VendingMachine;
+import com.sofia.testvendingmachine.remote.VendClient;
+import com.sofia.testvendingmachine.remote.VendServer;
+import com.sofia.testvendingmachine.services.IVendService;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.sofia.testvendingmachine.models.TestMachines.newMachineState;
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Routing and rebalancing of a {@link PartitionedFleet}, and purchase throughput across several
+ * partition processes on localhost.
+ */
+public class PartitionedFleetTest {
+    private static final int MACHINES = 256;
+
+    private static final String SCALING_PROPERTY = "vend.fleet.scaling";
+
+    private static VendServer startPartition() throws Exception {
+        final VendServer server = new VendServer(
+                new HashMap<Integer, IVendService>(),
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        server.start();
+        return server;
+    }
+
+    private static InetSocketAddress addressOf(int port) {
+        return new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+    }
+
+    @Test
+    public void ring_addingPartitionOnlyMovesMachinesToIt() {
+        final ConsistentHashRing before = new ConsistentHashRing(3);
+        final ConsistentHashRing after = new ConsistentHashRing(before);
+        final int added = after.addPartition();
+
+        int moved = 0;
+        for (int id = 0; id < 10000; id++) {
+            if (before.partitionFor(id) != after.partitionFor(id)) {
+                assertEquals(added, after.partitionFor(id));
+                moved++;
+            }
+        }
+
+        // the new partition takes about a quarter of the machines
+        assertTrue("moved " + moved, moved > 1500 && moved < 3500);
+    }
+
+    @Test
+    public void addPartition_movesOnlyAffectedMachinesAndKeepsTheirState() throws Exception {
+        final List<VendServer> servers = new ArrayList<>();
+        try {
+            final List<InetSocketAddress> addresses = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                servers.add(startPartition());
+                addresses.add(addressOf(servers.get(i).getLocalPort()));
+            }
+
+            try (PartitionedFleet fleet = new PartitionedFleet(addresses)) {
+                final List<PricingRule> rules =
+                        Collections.singletonList(PricingRule.percent(0, 0, new int[]{1}, -25));
+                for (int id = 0; id < MACHINES; id++) {
+                    fleet.addMachine(id, new MachineState(
+                            newMachineState(3).getStock(), rules, 0, 0, 400, "INSERT COIN"));
+                    fleet.getMachine(id).insertCoin(id % 2 == 0 ? 2000 : 5000);
+                }
+
+                final int[] owners = new int[MACHINES];
+                final long[] versions = new long[MACHINES];
+                for (int id = 0; id < MACHINES; id++) {
+                    owners[id] = fleet.partitionFor(id);
+                    versions[id] = fleet.getMachine(id).snapshot().getVersion();
+                }
+
+                servers.add(startPartition());
+                final int moved = fleet.addPartition(addressOf(servers.get(3).getLocalPort()));
+
+                int changed = 0;
+                for (int id = 0; id < MACHINES; id++) {
+                    if (fleet.partitionFor(id) != owners[id]) {
+                        assertEquals(3, fleet.partitionFor(id));
+                        changed++;
+                    }
+                }
+                assertEquals(changed, moved);
+                assertTrue("moved " + moved, moved > 0 && moved < MACHINES / 2);
+
+                try (VendClient added = VendClient.connect(addressOf(servers.get(3).getLocalPort()))) {
+                    assertEquals(moved, ((int[]) added.pipeline().getMachineIds().sync().get(0)).length);
+                }
+
+                // balances, stock, pricing rules and snapshot versions moved with the machines
+                for (int id = 0; id < MACHINES; id++) {
+                    final IVendService machine = fleet.getMachine(id);
+                    final long version = machine.snapshot().getVersion();
+                    assertTrue(fleet.partitionFor(id) == owners[id] ? version == versions[id] : version > versions[id]);
+                    assertEquals(id % 2 == 0 ? 2000 : 5000, machine.getAcceptedUsc());
+                    assertEquals(6000, machine.getPriceInUsc(1));
+                    assertTrue(machine.purchaseProduct(0));
+                }
+
+                // a second router learning about the partition finds nothing left to move
+                try (PartitionedFleet other = new PartitionedFleet(addresses)) {
+                    assertEquals(0, other.addPartition(addressOf(servers.get(3).getLocalPort())));
+                    assertEquals("THANK YOU", other.getMachine(7).updateAndGetCurrentMessageForDisplay());
+                }
+            }
+        } finally {
+            for (VendServer server : servers) {
+                server.close();
+            }
+        }
+    }
+
+    @Test
+    public void addPartition_failedMoveLeavesFleetAsItWas() throws Exception {
+        final List<VendServer> servers = new ArrayList<>();
+        try {
+            final List<InetSocketAddress> addresses = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                servers.add(startPartition());
+                addresses.add(addressOf(servers.get(i).getLocalPort()));
+            }
+
+            // the new partition already hosts a machine with an id that will move to it
+            final ConsistentHashRing next = new ConsistentHashRing(3);
+            next.addPartition();
+            int clash = 0;
+            while (next.partitionFor(clash) != 3) {
+                clash++;
+            }
+            final HashMap<Integer, IVendService> hosted = new HashMap<>();
+            hosted.put(clash, new VendingMachine(newMachineState(9)));
+            final VendServer added = new VendServer(
+                    hosted, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            added.start();
+            servers.add(added);
+
+            try (PartitionedFleet fleet = new PartitionedFleet(addresses)) {
+                for (int id = 0; id < MACHINES; id++) {
+                    fleet.addMachine(id, newMachineState(3));
+                    fleet.getMachine(id).insertCoin(id % 2 == 0 ? 2000 : 5000);
+                }
+
+                try {
+                    fleet.addPartition(addressOf(added.getLocalPort()));
+                    fail("expected the clashing machine to fail the move");
+                } catch (IllegalStateException exc) {
+                    assertEquals(0, exc.getSuppressed().length);
+                }
+
+                // nothing is lost, and the fleet keeps routing to the old owners
+                assertEquals(3, fleet.getPartitionCount());
+                for (int id = 0; id < MACHINES; id++) {
+                    final IVendService machine = fleet.getMachine(id);
+                    assertEquals(id % 2 == 0 ? 2000 : 5000, machine.getAcceptedUsc());
+                    assertEquals(3, machine.snapshot().getAvailable(0));
+                }
+
+                try (VendClient client = VendClient.connect(addressOf(added.getLocalPort()))) {
+                    final int[] ids = (int[]) client.pipeline().getMachineIds().sync().get(0);
+                    assertArrayEquals(new int[]{clash}, ids);
+                    final MachineSnapshot snapshot =
+                            (MachineSnapshot) client.pipeline().selectMachine(clash).snapshot().sync().get(1);
+                    assertEquals(9, snapshot.getAvailable(0));
+                }
+            }
+        } finally {
+            for (VendServer server : servers) {
+                server.close();
+            }
+        }
+    }
+
+    /**
+     * Near-linear scaling needs a quiet host with a core per partition plus cores for the clients,
+     * so the test only runs when asked for with {@code -Dvend.fleet.scaling=true}
+     */
+    @Test
+    public void partitionProcesses_scalePurchasesPerSecondNearLinearly() throws Exception {
+        assumeTrue("fleet scaling test not requested", Boolean.getBoolean(SCALING_PROPERTY));
+        assertTrue("fleet scaling needs at least 8 cores", Runtime.getRuntime().availableProcessors() >= 8);
+
+        final double one = measurePurchasesPerSecond(1);
+        final double four = measurePurchasesPerSecond(4);
+        final double speedup = four / one;
+
+        System.out.println(String.format(
+                Locale.US,
+                "fleet: 1 partition %.0f purchases/s, 4 partitions %.0f purchases/s, speedup %.2fx on %d cpus",
+                one, four, speedup, Runtime.getRuntime().availableProcessors()));
+
+        // at least 80% of linear
+        assertTrue("speedup " + speedup, speedup >= 3.2);
+    }
+
+    private static double measurePurchasesPerSecond(int partitionCount) throws Exception {
+        final int clients = 2 * partitionCount;
+        final int batches = 400;
+        final int purchasesPerBatch = 32;
+
+        final List<Process> processes = new ArrayList<>();
+        try {
+            final List<InetSocketAddress> addresses = new ArrayList<>();
+            for (int i = 0; i < partitionCount; i++) {
+                final Process process = startPartitionProcess();
+                processes.add(process);
+                addresses.add(addressOf(readPort(process)));
+            }
+
+            try (PartitionedFleet fleet = new PartitionedFleet(addresses)) {
+                for (int id = 0; id < MACHINES; id++) {
+                    fleet.addMachine(id, newMachineState(batches * purchasesPerBatch));
+                }
+            }
+
+            final AtomicLong purchases = new AtomicLong();
+            final AtomicReference<Throwable> failure = new AtomicReference<>();
+            final Thread[] threads = new Thread[clients];
+            for (int c = 0; c < clients; c++) {
+                final int client = c;
+                threads[c] = new Thread(() -> {
+                    try (PartitionedFleet fleet = new PartitionedFleet(addresses)) {
+                        for (int b = 0; b < batches; b++) {
+                            // each client owns its own machines, so every purchase succeeds
+                            final int machineId = (client + b * clients) % MACHINES;
+                            final VendClient.Pipeline pipeline = fleet.pipeline(machineId);
+                            for (int p = 0; p < purchasesPerBatch; p++) {
+                                pipeline.insertCoin(2000).purchaseProduct(0);
+                            }
+
+                            final List<Object> results = pipeline.sync();
+                            for (int r = 2; r < results.size(); r += 2) {
+                                if (Boolean.TRUE.equals(results.get(r))) {
+                                    purchases.incrementAndGet();
+                                }
+                            }
+                        }
+                    } catch (Throwable exc) {
+                        failure.compareAndSet(null, exc);
+                    }
+                });
+            }
+
+            final long start = System.nanoTime();
+            for (Thread thread : threads) {
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            final long elapsed = System.nanoTime() - start;
+
+            if (failure.get() != null) {
+                throw new AssertionError(failure.get());
+            }
+            assertEquals((long) clients * batches * purchasesPerBatch, purchases.get());
+
+            return purchases.get() * 1e9 / elapsed;
+        } finally {
+            for (Process process : processes) {
+                process.getOutputStream().close();
+                process.waitFor();
+            }
+        }
+    }
+
+    private static Process startPartitionProcess() throws Exception {
+        final String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        return new ProcessBuilder(
+                java,
+                "-cp", System.getProperty("java.class.path"),
+                VendPartition.class.getName())
+                .redirectErrorStream(true)
+                .start();
+    }
+
+    private static int readPort(Process process) throws Exception {
+        final BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.startsWith(VendPartition.READY_PREFIX)) {
+                return Integer.parseInt(line.substring(VendPartition.READY_PREFIX.length()));
+            }
+        }
+
+        throw new AssertionError("partition process exited before listening");
+    }
+}
@@ -0,0 +1,158 @@
+package com.sofia.testvendingmachine.models;
+
+import org.junit.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compiling {@link PricingRule}s with a {@link PricingEngine}, and the prices a
+ * {@link VendingMachine} charges and shows with them.
+ */
+public class PricingEngineTest {
+    private static final int ALL_DAY = 0;
+
+    private static List<Product> products() {
+        return Arrays.asList(new Product("Biskuit", 6000), new Product("Chips", 8000));
+    }
+
+    /**
+     * engine whose clock is stuck at the given UTC time of day
+     */
+    private static PricingEngine engineAt(int hour, int minute) {
+        final Instant instant = Instant.parse("2026-01-01T00:00:00Z").plusSeconds(hour * 3600L + minute * 60L);
+        return new PricingEngine(products(), Clock.fixed(instant, ZoneOffset.UTC));
+    }
+
+    private static int minute(int hour, int minute) {
+        return hour * 60 + minute;
+    }
+
+    @Test
+    public void windowCrossingMidnight_appliesOnBothSides() {
+        final PricingEngine engine = engineAt(0, 0);
+        engine.setRules(Collections.singletonList(
+                PricingRule.absolute(minute(22, 0), minute(2, 0), new int[0], 500)));
+
+        assertEquals(6500, engine.getPriceInUsc(0, minute(23, 59)));
+        assertEquals(6500, engine.getPriceInUsc(0, minute(0, 0)));
+        assertEquals(6500, engine.getPriceInUsc(0, minute(1, 59)));
+        assertEquals(6000, engine.getPriceInUsc(0, minute(2, 0)));
+        assertEquals(6000, engine.getPriceInUsc(0, minute(21, 59)));
+        assertEquals(6500, engine.getPriceInUsc(0, minute(22, 0)));
+    }
+
+    @Test
+    public void equalStartAndEnd_appliesAllDay() {
+        final PricingEngine engine = engineAt(0, 0);
+        engine.setRules(Collections.singletonList(
+                PricingRule.percent(minute(9, 30), minute(9, 30), new int[]{1}, -25)));
+
+        for (int minute = 0; minute < PricingRule.MINUTES_PER_DAY; minute += 7) {
+            assertEquals(6000, engine.getPriceInUsc(0, minute));
+            assertEquals(6000, engine.getPriceInUsc(1, minute));
+        }
+    }
+
+    @Test
+    public void overlappingRules_applyInListOrder() {
+        final PricingRule halfOff = PricingRule.percent(minute(17, 0), minute(19, 0), new int[0], -50);
+        final PricingRule surcharge = PricingRule.absolute(minute(18, 0), minute(20, 0), new int[0], 1000);
+
+        final PricingEngine discountFirst = engineAt(0, 0);
+        discountFirst.setRules(Arrays.asList(halfOff, surcharge));
+        assertEquals(3000, discountFirst.getPriceInUsc(0, minute(17, 30)));
+        assertEquals(4000, discountFirst.getPriceInUsc(0, minute(18, 30)));
+        assertEquals(7000, discountFirst.getPriceInUsc(0, minute(19, 30)));
+
+        final PricingEngine surchargeFirst = engineAt(0, 0);
+        surchargeFirst.setRules(Arrays.asList(surcharge, halfOff));
+        assertEquals(3500, surchargeFirst.getPriceInUsc(0, minute(18, 30)));
+    }
+
+    @Test
+    public void apply_floorsPercentAndClampsToValidPrices() {
+        // the adjustment truncates toward zero, so a discount never takes more than its percentage
+        assertEquals(67, PricingRule.percent(0, 0, new int[0], -33).apply(99));
+        assertEquals(0, PricingRule.percent(0, 0, new int[0], -100).apply(6000));
+        assertEquals(0, PricingRule.absolute(0, 0, new int[0], -7000).apply(6000));
+        assertEquals(Integer.MAX_VALUE, PricingRule.absolute(0, 0, new int[0], 10).apply(Integer.MAX_VALUE));
+        assertEquals(Integer.MAX_VALUE, PricingRule.percent(0, 0, new int[0], 200).apply(Integer.MAX_VALUE / 2));
+
+        try {
+            PricingRule.percent(0, 0, new int[0], -101);
+            fail("expected a discount over 100 percent to be rejected");
+        } catch (IllegalArgumentException exc) {
+            // expected
+        }
+    }
+
+    @Test
+    public void getPriceInUsc_rejectsUnknownSlots() {
+        final PricingEngine engine = engineAt(0, 0);
+        engine.setRules(Collections.singletonList(PricingRule.absolute(minute(12, 0), minute(13, 0), new int[0], 1)));
+
+        for (int slot : new int[]{-1, 2}) {
+            try {
+                engine.getPriceInUsc(slot, 0);
+                fail("expected slot " + slot + " to be rejected");
+            } catch (IndexOutOfBoundsException exc) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void machine_rejectsEngineForOtherSlotCount() {
+        final List<Stock> stock = new ArrayList<>();
+        stock.add(new Stock(new Product("Biskuit", 6000), 1));
+
+        try {
+            new VendingMachine(stock, engineAt(0, 0));
+            fail("expected an engine for two slots to be rejected by a one slot machine");
+        } catch (IllegalArgumentException exc) {
+            // expected
+        }
+    }
+
+    @Test
+    public void setRules_changesWhatPurchasesChargeAndShow() {
+        final PricingEngine engine = engineAt(17, 30);
+        final List<Stock> stock = new ArrayList<>();
+        for (Product product : products()) {
+            stock.add(new Stock(product, 5));
+        }
+        final VendingMachine machine = new VendingMachine(stock, engine);
+
+        // base price: $50.00 is not enough for chips
+        assertTrue(machine.insertCoin(5000));
+        assertFalse(machine.purchaseProduct(1));
+        assertEquals("HARGA $80.00", machine.updateAndGetCurrentMessageForDisplay());
+
+        // happy hour makes it affordable, and the display shows the effective price
+        engine.setRules(Collections.singletonList(
+                PricingRule.percent(minute(17, 0), minute(18, 0), new int[]{1}, -50)));
+        assertEquals(4000, machine.getPriceInUsc(1));
+        machine.returnCoins();
+        machine.collectCoins();
+        assertTrue(machine.insertCoin(2000));
+        assertFalse(machine.purchaseProduct(1));
+        assertEquals("HARGA $40.00", machine.updateAndGetCurrentMessageForDisplay());
+
+        assertTrue(machine.insertCoin(2000));
+        assertTrue(machine.purchaseProduct(1));
+        assertEquals(0, machine.getAcceptedUsc());
+        assertEquals(0, machine.getUscInReturn());
+
+        // back to base prices
+        engine.setRules(Collections.<PricingRule>emptyList());
+        assertEquals(8000, machine.getPriceInUsc(1));
+    }
+}
@@ -0,0 +1,128 @@
+package com.sofia.testvendingmachine.models;
+
+import org.junit.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Lot tracking in {@link Stock}, and expiry across the slots of a {@link VendingMachine}.
+ */
+public class StockTest {
+    private static final Product BISKUIT = new Product("Biskuit", 2000);
+
+    /**
+     * far enough in the future to never expire while the tests run
+     */
+    private static final long FRESH = Long.MAX_VALUE / 2;
+
+    @Test
+    public void reduceAvailable_sellsEarliestExpiryFirst() {
+        final Stock stock = new Stock(BISKUIT, Arrays.asList(
+                new Lot(2, FRESH + 300), new Lot(1, FRESH + 100), new Lot(3, FRESH + 200)));
+        stock.addLot(new Lot(1, FRESH + 50));
+        assertEquals(7, stock.getAvailable());
+
+        final long[] soldFrom = new long[7];
+        for (int i = 0; i < soldFrom.length; i++) {
+            soldFrom[i] = stock.getEarliestExpiresAtMillis();
+            stock.reduceAvailable();
+        }
+
+        assertArrayEquals(new long[]{
+                FRESH + 50, FRESH + 100, FRESH + 200, FRESH + 200, FRESH + 200, FRESH + 300, FRESH + 300
+        }, soldFrom);
+        assertEquals(0, stock.getAvailable());
+        assertTrue(stock.getLots().isEmpty());
+    }
+
+    @Test
+    public void removeExpired_removesOnlyExpiredLots() {
+        final Stock stock = new Stock(BISKUIT, Arrays.asList(
+                new Lot(2, 300), new Lot(4, 100), new Lot(3, 200)));
+
+        assertEquals(0, stock.removeExpired(99));
+        assertEquals(7, stock.removeExpired(200));
+        assertEquals(2, stock.getAvailable());
+        assertEquals(1, stock.getLots().size());
+        assertEquals(300, stock.getLots().get(0).getExpiresAtMillis());
+
+        stock.reduceAvailable();
+        assertEquals(1, stock.getAvailable());
+        assertEquals(1, stock.removeExpired(300));
+        assertEquals(0, stock.getAvailable());
+    }
+
+    @Test
+    public void lots_areCopiedNotShared() {
+        final Lot shared = new Lot(3, FRESH);
+        final Stock x = new Stock(BISKUIT, Arrays.asList(shared));
+        final Stock y = new Stock(BISKUIT, Arrays.asList(shared));
+
+        x.reduceAvailable();
+        x.reduceAvailable();
+        x.reduceAvailable();
+
+        assertEquals(3, shared.getQuantity());
+        assertEquals(3, y.getAvailable());
+        assertEquals(3, y.getLots().get(0).getQuantity());
+        y.reduceAvailable();
+        assertEquals(2, y.getAvailable());
+    }
+
+    @Test
+    public void emptyStock_hasNoLots() {
+        final Stock stock = new Stock(BISKUIT, 0);
+        assertEquals(0, stock.getAvailable());
+        assertTrue(stock.getLots().isEmpty());
+        assertEquals(Lot.NEVER_EXPIRES, stock.getEarliestExpiresAtMillis());
+        assertEquals(0, stock.removeExpired(Long.MAX_VALUE - 1));
+
+        try {
+            stock.reduceAvailable();
+            fail("expected an empty stock to refuse to sell");
+        } catch (UnsupportedOperationException exc) {
+            // expected
+        }
+    }
+
+    @Test
+    public void removeExpiredStock_skipsFreshSlots() {
+        final Stock expiring = new Stock(BISKUIT, Arrays.asList(new Lot(2, 100), new Lot(5, FRESH)));
+        final Stock fresh = new Stock(new Product("Chips", 8000), Arrays.asList(new Lot(4, FRESH)));
+        final List<Stock> stock = new ArrayList<>(Arrays.asList(expiring, fresh));
+        final VendingMachine machine = new VendingMachine(stock);
+
+        assertEquals(2, machine.removeExpiredStock(1000));
+        assertEquals(5, expiring.getAvailable());
+        assertEquals(4, fresh.getAvailable());
+        assertEquals(0, machine.removeExpiredStock(1000));
+    }
+
+    @Test
+    public void purchaseProduct_neverSellsExpiredUnits() {
+        // the machine reads the time from its pricing engine's clock
+        final Instant now = Instant.parse("2026-01-01T12:00:00Z");
+        final Stock stock = new Stock(BISKUIT, Arrays.asList(new Lot(1, now.toEpochMilli())));
+        final VendingMachine machine = new VendingMachine(
+                new ArrayList<>(Arrays.asList(stock)),
+                new PricingEngine(Arrays.asList(BISKUIT), Clock.fixed(now, ZoneOffset.UTC)));
+
+        assertTrue(machine.insertCoin(2000));
+        assertFalse(machine.purchaseProduct(0));
+        assertEquals("SOLD OUT", machine.updateAndGetCurrentMessageForDisplay());
+        assertEquals(0, stock.getAvailable());
+
+        // a lot expiring a millisecond later behind an expired one sells
+        stock.addLot(new Lot(1, now.toEpochMilli()));
+        stock.addLot(new Lot(1, now.toEpochMilli() + 1));
+        assertTrue(machine.purchaseProduct(0));
+        assertEquals(0, stock.getAvailable());
+    }
+}
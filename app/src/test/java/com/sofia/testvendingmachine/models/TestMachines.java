@@ -0,0 +1,29 @@
+package com.sofia.testvendingmachine.models;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Machines shared by the tests: Biskuit for $20.00 in slot 0 and Chips for $80.00 in slot 1,
+ * both never expiring.
+ */
+public final class TestMachines {
+    private TestMachines() {
+        // factories only
+    }
+
+    public static VendingMachine newMachine(int available) {
+        return newMachine(available, available);
+    }
+
+    public static VendingMachine newMachine(int biskuitAvailable, int chipsAvailable) {
+        final List<Stock> stock = new ArrayList<>();
+        stock.add(new Stock(new Product("Biskuit", 2000), biskuitAvailable));
+        stock.add(new Stock(new Product("Chips", 8000), chipsAvailable));
+        return new VendingMachine(stock);
+    }
+
+    public static MachineState newMachineState(int available) {
+        return newMachine(available).saveState();
+    }
+}
@@ -0,0 +1,116 @@
+package com.sofia.testvendingmachine.models;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * What {@link VendingMachine#snapshot()} publishes as the machine changes.
+ */
+public class VendingMachineSnapshotTest {
+    /**
+     * far enough in the future to never expire while the tests run
+     */
+    private static final long FRESH = Long.MAX_VALUE / 2;
+
+    @Test
+    public void version_increasesOnEveryChange() {
+        final VendingMachine machine = TestMachines.newMachine(2);
+        final MachineSnapshot initial = machine.snapshot();
+        assertEquals(2, initial.getAvailable(0));
+
+        assertTrue(machine.insertCoin(2000));
+        final MachineSnapshot inserted = machine.snapshot();
+        assertTrue(inserted.getVersion() > initial.getVersion());
+        assertEquals(2000, inserted.getAcceptedUsc());
+
+        assertTrue(machine.purchaseProduct(0));
+        final MachineSnapshot purchased = machine.snapshot();
+        assertTrue(purchased.getVersion() > inserted.getVersion());
+        assertEquals(0, purchased.getAcceptedUsc());
+        assertEquals(1, purchased.getAvailable(0));
+        assertEquals(2, purchased.getAvailable(1));
+        assertEquals("THANK YOU", purchased.getDisplayMessage());
+
+        machine.collectCoins();
+        assertTrue(machine.snapshot().getVersion() > purchased.getVersion());
+
+        // snapshots taken earlier never change
+        assertEquals(2, initial.getAvailable(0));
+    }
+
+    @Test
+    public void available_followsExpiryAndRestock() {
+        final List<Stock> stock = new ArrayList<>();
+        stock.add(new Stock(new Product("Biskuit", 2000), Arrays.asList(new Lot(2, 1000L), new Lot(3, FRESH))));
+        final VendingMachine machine = new VendingMachine(stock);
+        assertEquals(5, machine.snapshot().getAvailable(0));
+
+        assertEquals(2, machine.removeExpiredStock(System.currentTimeMillis()));
+        final MachineSnapshot expired = machine.snapshot();
+        assertEquals(3, expired.getAvailable(0));
+
+        // nothing left to expire, so nothing is published
+        assertEquals(0, machine.removeExpiredStock(System.currentTimeMillis()));
+        assertSame(expired, machine.snapshot());
+
+        machine.restock(0, new Lot(4, FRESH));
+        final MachineSnapshot restocked = machine.snapshot();
+        assertTrue(restocked.getVersion() > expired.getVersion());
+        assertEquals(7, restocked.getAvailable(0));
+    }
+
+    @Test
+    public void restoredState_isPublished() {
+        final MachineState state = new MachineState(
+                TestMachines.newMachineState(3).getStock(),
+                Collections.<PricingRule>emptyList(),
+                2000,
+                500,
+                400,
+                "THANK YOU",
+                100);
+
+        final MachineSnapshot snapshot = new VendingMachine(state).snapshot();
+        assertEquals(101, snapshot.getVersion());
+        assertEquals(2000, snapshot.getAcceptedUsc());
+        assertEquals(500, snapshot.getUscInReturn());
+        assertEquals(2, snapshot.getSlotCount());
+        assertEquals(3, snapshot.getAvailable(0));
+        assertEquals(3, snapshot.getAvailable(1));
+        assertEquals("THANK YOU", snapshot.getDisplayMessage());
+    }
+
+    @Test
+    public void restoredTwice_machinesShareNoStock() {
+        final MachineState state = TestMachines.newMachineState(3);
+        final VendingMachine first = new VendingMachine(state);
+        final VendingMachine second = new VendingMachine(state);
+
+        assertTrue(first.insertCoin(2000));
+        assertTrue(first.purchaseProduct(0));
+
+        assertEquals(2, first.snapshot().getAvailable(0));
+        assertEquals(3, second.snapshot().getAvailable(0));
+        assertEquals(3, second.saveState().getStock().get(0).getAvailable());
+        assertEquals(3, state.getStock().get(0).getAvailable());
+    }
+
+    @Test
+    public void version_keepsIncreasingAcrossSaveAndRestore() {
+        final VendingMachine machine = TestMachines.newMachine(3);
+        for (int i = 0; i < 50; i++) {
+            machine.insertCoin(2000);
+            machine.returnCoins();
+        }
+        final long saved = machine.snapshot().getVersion();
+
+        final VendingMachine restored = new VendingMachine(machine.saveState());
+        assertEquals(saved + 1, restored.snapshot().getVersion());
+    }
+}
@@ -0,0 +1,191 @@
+package com.sofia.testvendingmachine.remote;
+
+import com.sofia.testvendingmachine.models.MachineSnapshot;
+import com.sofia.testvendingmachine.models.Product;
+import com.sofia.testvendingmachine.models.Stock;
+import com.sofia.testvendingmachine.models.VendingMachine;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.sofia.testvendingmachine.models.TestMachines.newMachine;
+import static org.junit.Assert.*;
+
+/**
+ * Drives a {@link VendServer} over loopback with {@link VendClient}s and reports throughput and
+ * tail latency on stdout.
+ */
+public class VendServerLoadTest {
+    private static final int CLIENTS = 4;
+    private static final int BATCHES_PER_CLIENT = 2000;
+    private static final int PURCHASES_PER_BATCH = 32;
+
+    private static VendServer startServer(VendingMachine machine) throws Exception {
+        final VendServer server = new VendServer(
+                machine, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        server.start();
+        return server;
+    }
+
+    @Test
+    public void remoteCalls_matchLocalMachine() throws Exception {
+        try (VendServer server = startServer(newMachine(1));
+             VendClient client = VendClient.connect(
+                     new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort()))) {
+            assertEquals(Arrays.asList(new Product("Biskuit", 2000), new Product("Chips", 8000)),
+                    client.getProducts());
+            assertEquals(8000, client.getPriceInUsc(1));
+
+            assertFalse(client.insertCoin(1));
+            assertEquals(1, client.getUscInReturn());
+            assertTrue(client.insertCoin(2000));
+            assertEquals("$20.00", client.updateAndGetCurrentMessageForDisplay());
+            assertTrue(client.purchaseProduct(0));
+            assertEquals("THANK YOU", client.updateAndGetCurrentMessageForDisplay());
+            assertEquals(0, client.getAcceptedUsc());
+
+            client.collectCoins();
+            assertEquals(0, client.getUscInReturn());
+
+            final MachineSnapshot snapshot = client.snapshot();
+            assertEquals(0, snapshot.getAcceptedUsc());
+            assertEquals(0, snapshot.getAvailable(0));
+            assertEquals(1, snapshot.getAvailable(1));
+            assertEquals("EXACT CHANGE ONLY", snapshot.getDisplayMessage());
+            assertTrue(client.insertCoin(2000));
+            assertTrue(client.snapshot().getVersion() > snapshot.getVersion());
+            client.returnCoins();
+            client.collectCoins();
+
+            // sold out, and errors come back without breaking the stream
+            final List<Object> results = client.pipeline()
+                    .insertCoin(2000)
+                    .purchaseProduct(0)
+                    .updateAndGetCurrentMessageForDisplay()
+                    .returnCoins()
+                    .getUscInReturn()
+                    .sync();
+            assertEquals(Arrays.<Object>asList(true, false, "SOLD OUT", null, 2000), results);
+
+            try {
+                client.getPriceInUsc(7);
+                fail("expected a remote error for an unknown product");
+            } catch (IllegalStateException exc) {
+                // expected
+            }
+            assertEquals(2000, client.getUscInReturn());
+        }
+    }
+
+    @Test
+    public void oversizedResponse_failsOnlyThatCall() throws Exception {
+        // a catalog too large for one frame
+        final List<Stock> stock = new ArrayList<>();
+        for (int i = 0; i < 4000; i++) {
+            stock.add(new Stock(new Product("Product " + i, 2000), 1));
+        }
+
+        try (VendServer server = startServer(new VendingMachine(stock));
+             VendClient client = VendClient.connect(
+                     new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort()))) {
+            try {
+                client.getProducts();
+                fail("expected an oversized catalog to be refused");
+            } catch (IllegalStateException exc) {
+                assertEquals("vend server error: response to op 9 is too large", exc.getMessage());
+            }
+
+            // the stream is still in sync
+            assertTrue(client.insertCoin(2000));
+            assertTrue(client.purchaseProduct(3999));
+            assertEquals(0, client.snapshot().getAvailable(3999));
+        }
+    }
+
+    @Test
+    public void loopbackLoad_reportsThroughputAndTailLatency() throws Exception {
+        final int purchases = CLIENTS * BATCHES_PER_CLIENT * PURCHASES_PER_BATCH;
+        try (VendServer server = startServer(newMachine(purchases))) {
+            final InetSocketAddress address =
+                    new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort());
+            final long[][] latencies = new long[CLIENTS][BATCHES_PER_CLIENT];
+            final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+            final Thread[] threads = new Thread[CLIENTS];
+            for (int c = 0; c < CLIENTS; c++) {
+                final long[] clientLatencies = latencies[c];
+                threads[c] = new Thread(() -> {
+                    try (VendClient client = VendClient.connect(address)) {
+                        final VendClient.Pipeline pipeline = client.pipeline();
+                        for (int b = 0; b < BATCHES_PER_CLIENT; b++) {
+                            for (int p = 0; p < PURCHASES_PER_BATCH; p++) {
+                                pipeline.insertCoin(2000).purchaseProduct(0);
+                            }
+                            final int requests = pipeline.size();
+
+                            final long start = System.nanoTime();
+                            final List<Object> results = pipeline.sync();
+                            clientLatencies[b] = System.nanoTime() - start;
+
+                            if (results.size() != requests) {
+                                throw new AssertionError("missing responses");
+                            }
+                        }
+                    } catch (Throwable exc) {
+                        failure.compareAndSet(null, exc);
+                    }
+                });
+            }
+
+            final long start = System.nanoTime();
+            for (Thread thread : threads) {
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            final long elapsed = System.nanoTime() - start;
+
+            if (failure.get() != null) {
+                throw new AssertionError(failure.get());
+            }
+
+            final long[] all = new long[CLIENTS * BATCHES_PER_CLIENT];
+            for (int c = 0; c < CLIENTS; c++) {
+                System.arraycopy(latencies[c], 0, all, c * BATCHES_PER_CLIENT, BATCHES_PER_CLIENT);
+            }
+            Arrays.sort(all);
+
+            final long requests = 2L * purchases;
+            System.out.println(String.format(
+                    Locale.US,
+                    "vend server: %d clients, %d requests in %.1f ms = %.0f requests/s; "
+                            + "batch of %d latency p50 %.1f us, p99 %.1f us, p99.9 %.1f us, max %.1f us",
+                    CLIENTS,
+                    requests,
+                    elapsed / 1e6,
+                    requests * 1e9 / elapsed,
+                    2 * PURCHASES_PER_BATCH,
+                    percentile(all, 0.50) / 1e3,
+                    percentile(all, 0.99) / 1e3,
+                    percentile(all, 0.999) / 1e3,
+                    all[all.length - 1] / 1e3));
+
+            // every purchase either took the coin just inserted or found none to take
+            try (VendClient client = VendClient.connect(address)) {
+                assertEquals(0, client.getAcceptedUsc());
+            }
+        }
+    }
+
+    private static long percentile(long[] sorted, double fraction) {
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * fraction))];
+    }
+}
@@ -0,0 +1,142 @@
+package com.sofia.testvendingmachine.trace;
+
+import com.sofia.testvendingmachine.models.Product;
+import com.sofia.testvendingmachine.models.Stock;
+import com.sofia.testvendingmachine.models.VendingMachine;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.sofia.testvendingmachine.models.TestMachines.newMachine;
+import static org.junit.Assert.*;
+
+/**
+ * Records a customer session with {@link TraceRecorder} and replays it with
+ * {@link TraceReplayer}.
+ */
+public class TraceReplayerTest {
+    private static void session(TraceRecorder machine) {
+        machine.getProducts();
+        for (int i = 0; i < 1000; i++) {
+            machine.insertCoin(5000);
+            machine.insertCoin(1);
+            machine.purchaseProduct(1);
+            machine.updateAndGetCurrentMessageForDisplay();
+            machine.insertCoin(5000);
+            machine.purchaseProduct(1);
+            machine.returnCoins();
+            machine.getUscInReturn();
+            machine.collectCoins();
+        }
+
+        try {
+            machine.getPriceInUsc(9);
+            fail("expected an unknown product to throw");
+        } catch (RuntimeException exc) {
+            // recorded as thrown
+        }
+    }
+
+    @Test
+    public void replay_sameBuildMatchesRecording() throws Exception {
+        final File file = File.createTempFile("vend", ".trace");
+        try {
+            try (TraceRecorder recorder = TraceRecorder.open(newMachine(50, 10), file)) {
+                session(recorder);
+            }
+
+            final TraceReplayer replayer = TraceReplayer.open(file);
+            final ReplayReport fast = replayer.replay(newMachine(50, 10), TraceReplayer.Pace.AS_FAST_AS_POSSIBLE);
+            System.out.println("vend trace replay: " + fast + " from " + file.length() + " bytes");
+            assertEquals(1 + 9 * 1000 + 1, fast.getCalls());
+            assertEquals(fast.getMismatchDetails().toString(), 0, fast.getMismatches());
+
+            final ReplayReport original = replayer.replay(newMachine(50, 10), TraceReplayer.Pace.ORIGINAL);
+            assertEquals(0, original.getMismatches());
+        } finally {
+            assertTrue(file.delete());
+        }
+    }
+
+    @Test
+    public void replay_differentMachineReportsMismatches() throws Exception {
+        final File file = File.createTempFile("vend", ".trace");
+        try {
+            try (TraceRecorder recorder = TraceRecorder.open(newMachine(50, 10), file)) {
+                session(recorder);
+            }
+
+            // one unit of chips less sells out in the tenth round, first showing on the display
+            final ReplayReport report = TraceReplayer.open(file)
+                    .replay(newMachine(50, 9), TraceReplayer.Pace.AS_FAST_AS_POSSIBLE);
+            assertTrue(report.getMismatches() > 0);
+            assertTrue(report.getMismatchDetails().get(0).startsWith("call 86 "));
+        } finally {
+            assertTrue(file.delete());
+        }
+    }
+
+    @Test
+    public void replay_truncatedTraceStopsAtLastCompleteRecord() throws Exception {
+        final File file = File.createTempFile("vend", ".trace");
+        try {
+            try (TraceRecorder recorder = TraceRecorder.open(newMachine(50, 10), file)) {
+                session(recorder);
+            }
+
+            // cut the last record, the thrown price lookup, after its op
+            final byte[] bytes = Files.readAllBytes(file.toPath());
+            final ReplayReport report = new TraceReplayer(ByteBuffer.wrap(bytes, 0, bytes.length - 2))
+                    .replay(newMachine(50, 10), TraceReplayer.Pace.AS_FAST_AS_POSSIBLE);
+            assertTrue(report.isTruncated());
+            assertEquals(1 + 9 * 1000, report.getCalls());
+            assertEquals(0, report.getMismatches());
+            assertTrue(report.toString().endsWith(", trace truncated"));
+        } finally {
+            assertTrue(file.delete());
+        }
+    }
+
+    @Test
+    public void record_resultTooLargeIsReturnedAndSkippedOnReplay() throws Exception {
+        // a catalog larger than one record
+        final List<Stock> stock = new ArrayList<>();
+        for (int i = 0; i < 4000; i++) {
+            stock.add(new Stock(new Product("Product " + i, 2000), 1));
+        }
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (TraceRecorder recorder = new TraceRecorder(new VendingMachine(stock), out)) {
+            assertEquals(4000, recorder.getProducts().size());
+            assertEquals("EXACT CHANGE ONLY", recorder.updateAndGetCurrentMessageForDisplay());
+        }
+
+        final ReplayReport report = new TraceReplayer(ByteBuffer.wrap(out.toByteArray()))
+                .replay(new VendingMachine(stock), TraceReplayer.Pace.AS_FAST_AS_POSSIBLE);
+        assertEquals(2, report.getCalls());
+        assertEquals(0, report.getMismatches());
+        assertFalse(report.isTruncated());
+    }
+
+    @Test
+    public void replay_unknownOpIsCorrupt() {
+        final ByteBuffer trace = ByteBuffer.allocate(TraceFormat.HEADER_SIZE + 2);
+        trace.putInt(TraceFormat.MAGIC).put(TraceFormat.VERSION).putLong(0)
+                .put((byte) 0)
+                .put((byte) 0x3F);
+        trace.flip();
+
+        try {
+            new TraceReplayer(trace).replay(newMachine(1), TraceReplayer.Pace.AS_FAST_AS_POSSIBLE);
+            fail("expected an unknown op to be reported as corrupt");
+        } catch (IllegalArgumentException exc) {
+            assertEquals("corrupt vend trace after 0 calls", exc.getMessage());
+        }
+    }
+}